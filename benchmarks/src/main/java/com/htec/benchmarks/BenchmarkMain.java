@@ -0,0 +1,78 @@
+package com.htec.benchmarks;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The main class of benchmarks.jar: runs JMH, but unless told otherwise writes the results as JSON to
+ * jmh-results/[commit]-[time].json, so that runs on different commits can be compared (for instance with
+ * JMH Visualizer, or with jq). All JMH options work as usual; passing -rf or -rff turns the default off.
+ */
+@NonNullByDefault
+final public class BenchmarkMain {
+	private BenchmarkMain() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<String> list = new ArrayList<>(Arrays.asList(args));
+		if(!list.contains("-rf") && !list.contains("-rff") && !isInfoOnly(list)) {
+			File dir = new File("jmh-results");
+			dir.mkdirs();
+			String name = getCommit() + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json";
+			list.add(0, "-rf");
+			list.add(1, "json");
+			list.add(2, "-rff");
+			list.add(3, new File(dir, name).getPath());
+		}
+		org.openjdk.jmh.Main.main(list.toArray(new String[0]));
+	}
+
+	/**
+	 * Options that only list or explain, and run nothing.
+	 */
+	static private boolean isInfoOnly(List<String> args) {
+		for(String arg : args) {
+			switch(arg) {
+				default:
+					break;
+				case "-h":
+				case "-l":
+				case "-lp":
+				case "-lrf":
+				case "-lprof":
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The short hash of the commit in the current directory, or "nocommit" outside of a git checkout.
+	 */
+	static private String getCommit() {
+		try {
+			Process process = new ProcessBuilder("git", "rev-parse", "--short", "HEAD").redirectErrorStream(true).start();
+			String line;
+			try(BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+				line = reader.readLine();
+			}
+			if(process.waitFor() == 0 && null != line && !line.isBlank()) {
+				String commit = line.trim();
+				Process dirty = new ProcessBuilder("git", "diff", "--quiet", "HEAD").start();
+				return dirty.waitFor() == 0 ? commit : commit + "-dirty";
+			}
+		} catch(Exception x) {
+			//-- No git; results are still written
+		}
+		return "nocommit";
+	}
+}
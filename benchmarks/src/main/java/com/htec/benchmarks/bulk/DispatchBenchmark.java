@@ -0,0 +1,184 @@
+package com.htec.benchmarks.bulk;
+
+import com.htec.examples.parallelrunner.bulk.AbstractTaskExecutor;
+import com.htec.examples.parallelrunner.bulk.BulkTaskRunner;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares dispatching tasks through a {@link BulkTaskRunner} with a fixed {@link ThreadPoolExecutor} and a
+ * {@link ForkJoinPool} of the same size, for empty, CPU-bound (about 10us) and sleeping (1ms) task bodies.
+ * The throughput benchmark lets one producer push a batch of tasks and waits for all of them; the latency
+ * benchmark measures the round trip of a single task, from adding it to seeing it done.
+ *
+ * <p>Run a subset with for instance {@code java -jar benchmarks.jar DispatchBenchmark -p body=empty -p threads=4,16}.</p>
+ */
+@NonNullByDefault
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark {
+	private static final int TASKS_PER_INVOCATION = 1_000;
+
+	/** Blackhole.consumeCPU tokens for the CPU-bound body, about 10us. */
+	private static final long CPU_TOKENS = 4_000;
+
+	@Param({"bulk", "threadPool", "forkJoin"})
+	public String backend = "bulk";
+
+	@Param({"empty", "cpu", "sleep"})
+	public String body = "empty";
+
+	@Param({"1", "4", "16", "64"})
+	public int threads;
+
+	@Nullable
+	private BulkTaskRunner<Runnable, Boolean> m_runner;
+
+	@Nullable
+	private ExecutorService m_pool;
+
+	/**
+	 * Runs the task it is given; the same Runnable goes to every backend.
+	 */
+	static private final class RunnableExecutor extends AbstractTaskExecutor<Runnable, Boolean> {
+		RunnableExecutor(BulkTaskRunner<Runnable, Boolean> runner) {
+			super(runner);
+		}
+
+		@Override
+		protected void initialize() {
+		}
+
+		@Override
+		protected void terminate() {
+		}
+
+		@Override
+		protected Boolean executeOnce(Runnable taskInfo) {
+			taskInfo.run();
+			return Boolean.TRUE;
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		switch(backend) {
+			default:
+				throw new IllegalStateException("Unknown backend " + backend);
+
+			case "bulk":
+				BulkTaskRunner<Runnable, Boolean> runner = new BulkTaskRunner<>();
+				runner.start(RunnableExecutor::new, threads);
+				m_runner = runner;
+				break;
+
+			case "threadPool":
+				ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+				pool.prestartAllCoreThreads();
+				m_pool = pool;
+				break;
+
+			case "forkJoin":
+				m_pool = new ForkJoinPool(threads);
+				break;
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		BulkTaskRunner<Runnable, Boolean> runner = m_runner;
+		if(null != runner) {
+			runner.close();
+			m_runner = null;
+		}
+		ExecutorService pool = m_pool;
+		if(null != pool) {
+			pool.shutdown();
+			pool.awaitTermination(1, TimeUnit.MINUTES);
+			m_pool = null;
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(TASKS_PER_INVOCATION)
+	public void throughput() throws Exception {
+		CountDownLatch done = new CountDownLatch(TASKS_PER_INVOCATION);
+		Runnable task = newTask(done);
+		for(int i = 0; i < TASKS_PER_INVOCATION; i++) {
+			dispatch(task);
+		}
+		done.await();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void latency() throws Exception {
+		CountDownLatch done = new CountDownLatch(1);
+		dispatch(newTask(done));
+		done.await();
+	}
+
+	private Runnable newTask(CountDownLatch done) {
+		switch(body) {
+			default:
+				throw new IllegalStateException("Unknown body " + body);
+
+			case "empty":
+				return done::countDown;
+
+			case "cpu":
+				return () -> {
+					Blackhole.consumeCPU(CPU_TOKENS);
+					done.countDown();
+				};
+
+			case "sleep":
+				return () -> {
+					try {
+						Thread.sleep(1);
+					} catch(InterruptedException x) {
+						Thread.currentThread().interrupt();
+					}
+					done.countDown();
+				};
+		}
+	}
+
+	private void dispatch(Runnable task) {
+		BulkTaskRunner<Runnable, Boolean> runner = m_runner;
+		if(null != runner) {
+			runner.addTask(task);
+			return;
+		}
+		ExecutorService pool = m_pool;
+		if(null == pool)
+			throw new IllegalStateException("Backend not started");
+		pool.execute(task);
+	}
+}
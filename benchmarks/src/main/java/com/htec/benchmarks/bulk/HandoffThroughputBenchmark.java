@@ -0,0 +1,96 @@
+package com.htec.benchmarks.bulk;
+
+import com.htec.examples.parallelrunner.bulk.AbstractTaskExecutor;
+import com.htec.examples.parallelrunner.bulk.BulkTaskRunner;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many empty tasks per second a single producer can hand to the executors of a
+ * {@link BulkTaskRunner}, as the number of executor threads grows. With empty task bodies the
+ * result is dominated by the dispatch path: popping a free executor, the handoff and the wakeup.
+ */
+@NonNullByDefault
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandoffThroughputBenchmark {
+	private static final int TASKS_PER_INVOCATION = 10_000;
+
+	@Param({"1", "2", "4", "8", "16", "32", "64"})
+	public int threads;
+
+	@Nullable
+	private BulkTaskRunner<CountDownLatch, Boolean> m_runner;
+
+	/**
+	 * The task is the latch of the invocation it belongs to; executing it just counts down.
+	 */
+	static private final class LatchExecutor extends AbstractTaskExecutor<CountDownLatch, Boolean> {
+		LatchExecutor(BulkTaskRunner<CountDownLatch, Boolean> runner) {
+			super(runner);
+		}
+
+		@Override
+		protected void initialize() {
+		}
+
+		@Override
+		protected void terminate() {
+		}
+
+		@Override
+		protected Boolean executeOnce(CountDownLatch taskInfo) {
+			taskInfo.countDown();
+			return Boolean.TRUE;
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		BulkTaskRunner<CountDownLatch, Boolean> runner = new BulkTaskRunner<>();
+		runner.start(LatchExecutor::new, threads);
+		m_runner = runner;
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		BulkTaskRunner<CountDownLatch, Boolean> runner = m_runner;
+		if(null != runner) {
+			runner.close();
+			m_runner = null;
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TASKS_PER_INVOCATION)
+	public void handoff() throws Exception {
+		BulkTaskRunner<CountDownLatch, Boolean> runner = m_runner;
+		if(null == runner)
+			throw new IllegalStateException("Runner not started");
+		CountDownLatch done = new CountDownLatch(TASKS_PER_INVOCATION);
+		for(int i = 0; i < TASKS_PER_INVOCATION; i++) {
+			runner.addTask(done);
+		}
+		done.await();
+	}
+}
@@ -0,0 +1,148 @@
+package com.htec.benchmarks.util;
+
+import com.htec.stubs.FakeResultSet;
+import com.htec.util.ColumnarBatch;
+import com.htec.util.IAnyRecord;
+import com.htec.util.JdbcAnyRecord;
+import com.htec.util.OffHeapBatch;
+import com.htec.util.SegmentPool;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hash the augmentation computes over all columns of a batch of the stub rows: per record over a list of
+ * {@link JdbcAnyRecord}s as the task does, the same through the row views of a {@link ColumnarBatch}, and column by
+ * column over its vectors or over an {@link OffHeapBatch}. toBatch and toOffHeap are the cost of
+ * copying the records into a batch; the off-heap one is closed again, so its segments come from the pool. Run with
+ * -prof gc to see the allocation.
+ */
+@NonNullByDefault
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnarBatchBenchmark {
+	@Param({"100", "1000"})
+	public int rows;
+
+	private List<JdbcAnyRecord> m_records = new ArrayList<>();
+
+	@Nullable
+	private ColumnarBatch m_batch;
+
+	private final SegmentPool m_pool = new SegmentPool(256 * 1024, 16);
+
+	@Nullable
+	private OffHeapBatch m_offHeapBatch;
+
+	@Setup
+	public void setup() {
+		FakeResultSet rs = new FakeResultSet(rows);
+		m_records = new ArrayList<>();
+		while(rs.hasNext()) {
+			m_records.add(rs.next());
+		}
+		m_batch = ColumnarBatch.of(m_records.get(0).getSchema(), m_records);
+		m_offHeapBatch = toOffHeapBatch();
+	}
+
+	@TearDown
+	public void tearDown() {
+		OffHeapBatch batch = m_offHeapBatch;
+		if(null != batch) {
+			batch.close();
+			m_offHeapBatch = null;
+		}
+	}
+
+	@Benchmark
+	public int[] hashRecords() {
+		return hashRowByRow(m_records);
+	}
+
+	@Benchmark
+	public int[] hashRowViews() {
+		return hashRowByRow(batch().rows());
+	}
+
+	@Benchmark
+	public int[] hashColumns() {
+		ColumnarBatch batch = batch();
+		int[] hashes = new int[batch.size()];
+		for(int i = 0; i < batch.getSchema().size(); i++) {
+			batch.vector(i).addHashCodes(hashes, batch.size());
+		}
+		return hashes;
+	}
+
+	@Benchmark
+	public int[] hashOffHeap() {
+		OffHeapBatch batch = m_offHeapBatch;
+		if(null == batch)
+			throw new IllegalStateException("Not set up");
+		int[] hashes = new int[batch.size()];
+		for(int i = 0; i < batch.getSchema().size(); i++) {
+			batch.addHashCodes(i, hashes);
+		}
+		return hashes;
+	}
+
+	@Benchmark
+	public ColumnarBatch toBatch() {
+		return ColumnarBatch.of(m_records.get(0).getSchema(), m_records);
+	}
+
+	@Benchmark
+	public long toOffHeap() {
+		try(OffHeapBatch batch = toOffHeapBatch()) {
+			return batch.getBytesUsed();
+		}
+	}
+
+	private OffHeapBatch toOffHeapBatch() {
+		OffHeapBatch batch = new OffHeapBatch(m_records.get(0).getSchema(), m_pool, m_records.size());
+		for(JdbcAnyRecord record : m_records) {
+			batch.add(record);
+		}
+		return batch;
+	}
+
+	static private int[] hashRowByRow(List<? extends IAnyRecord> records) {
+		int[] hashes = new int[records.size()];
+		for(int row = 0; row < hashes.length; row++) {
+			IAnyRecord record = records.get(row);
+			int hash = 0;
+			for(String column : record.getAllColumnNames()) {
+				Object o = record.get(column);
+				hash += null != o ? o.hashCode() : 0;
+			}
+			hashes[row] = hash;
+		}
+		return hashes;
+	}
+
+	private ColumnarBatch batch() {
+		ColumnarBatch batch = m_batch;
+		if(null == batch)
+			throw new IllegalStateException("Not set up");
+		return batch;
+	}
+}
@@ -0,0 +1,137 @@
+package com.htec.benchmarks.util;
+
+import com.htec.util.JdbcAnyRecord;
+import com.htec.util.RecordSchema;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-record cost of {@link JdbcAnyRecord}: populating one from a result set row, and reading all its columns
+ * by name, as the augmentation jobs do for every record; and the same with the schema made once and columns read
+ * through their {@link RecordSchema.Column}, as the readers do now. sumNumbers reads the numeric columns with
+ * getLong, which does not allocate for columns stored as a long. Run with -prof gc to see the allocation per
+ * record.
+ */
+@NonNullByDefault
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JdbcAnyRecordBenchmark {
+	@Param({"8", "32"})
+	public int columns;
+
+	/** NUMERIC columns as a decimal without bounds, or with precision 18 and scale 0, which records keep as a long. */
+	@Param({"decimal", "long"})
+	public String numbers = "decimal";
+
+	@Nullable
+	private StubResultSet m_stub;
+
+	@Nullable
+	private JdbcAnyRecord m_record;
+
+	/** Column names as the code asks for them: the upper case names, as in the query. */
+	private String[] m_names = new String[0];
+
+	@Nullable
+	private RecordSchema m_schema;
+
+	private RecordSchema.Column[] m_columns = new RecordSchema.Column[0];
+
+	private RecordSchema.Column[] m_numericColumns = new RecordSchema.Column[0];
+
+	@Setup
+	public void setup() throws Exception {
+		StubResultSet stub = m_stub = "long".equals(numbers) ? new StubResultSet(columns, 18, 0) : new StubResultSet(columns);
+		RecordSchema schema = m_schema = RecordSchema.of("BENCH", stub.getMetaData());
+		JdbcAnyRecord record = m_record = new JdbcAnyRecord(schema);
+		record.initFromRS(schema, stub.getResultSet());
+		m_names = new String[columns];
+		m_columns = new RecordSchema.Column[columns];
+		for(int i = 0; i < columns; i++) {
+			m_names[i] = stub.getColumnName(i);
+			m_columns[i] = schema.column(m_names[i]);
+		}
+		m_numericColumns = Arrays.stream(m_columns)
+			.filter(c -> schema.getSqlType(c.getIndex()) == Types.NUMERIC)
+			.toArray(RecordSchema.Column[]::new);
+	}
+
+	/**
+	 * A new record per row, as the readers do.
+	 */
+	@Benchmark
+	public JdbcAnyRecord initFromRS() throws Exception {
+		StubResultSet stub = m_stub;
+		if(null == stub)
+			throw new IllegalStateException("Not set up");
+		JdbcAnyRecord record = new JdbcAnyRecord();
+		record.initFromRS("BENCH", stub.getMetaData(), stub.getResultSet());
+		return record;
+	}
+
+	/**
+	 * A new record per row sharing the schema of the result set.
+	 */
+	@Benchmark
+	public JdbcAnyRecord initFromRSWithSchema() throws Exception {
+		StubResultSet stub = m_stub;
+		RecordSchema schema = m_schema;
+		if(null == stub || null == schema)
+			throw new IllegalStateException("Not set up");
+		JdbcAnyRecord record = new JdbcAnyRecord(schema);
+		record.initFromRS(schema, stub.getResultSet());
+		return record;
+	}
+
+	@Benchmark
+	public void getAllByName(Blackhole bh) {
+		JdbcAnyRecord record = m_record;
+		if(null == record)
+			throw new IllegalStateException("Not set up");
+		for(String name : m_names) {
+			bh.consume(record.get(name));
+		}
+	}
+
+	@Benchmark
+	public void getAllByColumn(Blackhole bh) {
+		JdbcAnyRecord record = m_record;
+		if(null == record)
+			throw new IllegalStateException("Not set up");
+		for(RecordSchema.Column column : m_columns) {
+			bh.consume(record.get(column));
+		}
+	}
+
+	@Benchmark
+	public long sumNumbers() {
+		JdbcAnyRecord record = m_record;
+		if(null == record)
+			throw new IllegalStateException("Not set up");
+		long sum = 0;
+		for(RecordSchema.Column column : m_numericColumns) {
+			sum += record.getLong(column, 0);
+		}
+		return sum;
+	}
+}
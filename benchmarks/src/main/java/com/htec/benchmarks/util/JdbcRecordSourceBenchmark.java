@@ -0,0 +1,172 @@
+package com.htec.benchmarks.util;
+
+import com.htec.util.ConnectionFactory;
+import com.htec.util.JdbcAnyRecord;
+import com.htec.util.JdbcRecordSource;
+import com.htec.util.JdbcRecordSource.FetchMode;
+import com.htec.util.JdbcRecordSource.Partitioning;
+import com.htec.util.RecordPool;
+import com.htec.util.RecordSchema;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads a table of an in-process H2 database through a RANGE partitioned {@link JdbcRecordSource}, as the loader
+ * reads its input, in chunks that are let go once summed: with a {@link RecordPool} the chunk's records are released
+ * and the readers lease them again, from whichever partition. Scores are per row. The records are read on the
+ * source's reader threads, which -prof gc does not see, so each iteration prints the heap allocated per row by the
+ * benchmark and reader threads, and the pool's status: reuses that needed new value arrays should stay at 0 for any
+ * partition count.
+ */
+@NonNullByDefault
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(JdbcRecordSourceBenchmark.ROWS)
+public class JdbcRecordSourceBenchmark {
+	static final int ROWS = 20_000;
+
+	static private final int CHUNK = 500;
+
+	static private final int FETCH_SIZE = 200;
+
+	static private final int READ_AHEAD_BLOCKS = 4;
+
+	static private final String URL = "jdbc:h2:mem:record-source-benchmark;DB_CLOSE_DELAY=-1";
+
+	@Param({"1", "4"})
+	public int partitions;
+
+	@Param({"false", "true"})
+	public boolean pooled;
+
+	private final com.sun.management.ThreadMXBean m_threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	/** What the reader threads allocated while they had a connection open, which is all of their reading. */
+	private final AtomicLong m_readerAllocated = new AtomicLong();
+
+	private final ConnectionFactory m_database = this::connect;
+
+	@Nullable
+	private RecordPool m_pool;
+
+	private final List<JdbcAnyRecord> m_chunk = new ArrayList<>(CHUNK);
+
+	private long m_allocatedAtStart;
+
+	private long m_rowsRead;
+
+	@Setup
+	public void setup() throws Exception {
+		try(Connection connection = m_database.getConnection(); Statement st = connection.createStatement()) {
+			st.execute("drop table if exists table1");
+			st.execute("create table table1(id integer primary key, col1 varchar(64), col2 varchar(64), col3 varchar(64), hash integer)");
+			try(PreparedStatement ps = connection.prepareStatement("insert into table1(id, col1, col2, col3) values(?, ?, ?, ?)")) {
+				for(int id = 0; id < ROWS; id++) {
+					ps.setInt(1, id);
+					ps.setString(2, "name" + id % 97);
+					ps.setString(3, "likes");
+					ps.setString(4, "fruit" + id % 13);
+					ps.addBatch();
+				}
+				ps.executeBatch();
+			}
+		}
+		m_pool = pooled ? new RecordPool((READ_AHEAD_BLOCKS + partitions + 1) * FETCH_SIZE + CHUNK) : null;
+	}
+
+	@Setup(Level.Iteration)
+	public void startIteration() {
+		m_allocatedAtStart = m_threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		m_readerAllocated.set(0);
+		m_rowsRead = 0;
+	}
+
+	@TearDown(Level.Iteration)
+	public void endIteration() {
+		long allocated = m_threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - m_allocatedAtStart + m_readerAllocated.get();
+		String perRow = m_allocatedAtStart < 0 || m_rowsRead == 0 ? "unknown" : allocated / m_rowsRead + " B";
+		RecordPool pool = m_pool;
+		System.out.println("Allocated per row: " + perRow + (null == pool ? "" : "; pool: " + pool.getStatus()));
+	}
+
+	/**
+	 * A connection that, when a reader thread closes it, adds what that thread allocated since it was opened.
+	 */
+	private Connection connect() throws SQLException {
+		Connection connection = DriverManager.getConnection(URL, "sa", "");
+		long threadId = Thread.currentThread().getId();
+		long start = m_threads.getThreadAllocatedBytes(threadId);
+		if(!Thread.currentThread().getName().startsWith("jdbc-record-source-reader"))
+			return connection;
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+			if(method.getName().equals("close"))
+				m_readerAllocated.addAndGet(m_threads.getThreadAllocatedBytes(threadId) - start);
+			try {
+				return method.invoke(connection, args);
+			} catch(InvocationTargetException x) {
+				throw x.getCause();
+			}
+		});
+	}
+
+	@Benchmark
+	public long readSource() throws Exception {
+		RecordPool pool = m_pool;
+		List<JdbcAnyRecord> chunk = m_chunk;
+		long sum = 0;
+		try(JdbcRecordSource rs = JdbcRecordSource.partitioned(m_database, "select * from table1", List.of(), "id", Partitioning.RANGE, partitions, "table1", FETCH_SIZE,
+			FetchMode.CURSOR, READ_AHEAD_BLOCKS)) {
+			if(null != pool)
+				rs.setRecordPool(pool);
+			rs.open();
+			RecordSchema.Column id = null;
+			while(rs.hasNext()) {
+				JdbcAnyRecord record = rs.next();
+				if(null == id)
+					id = record.getSchema().column("id");
+				chunk.add(record);
+				if(chunk.size() == CHUNK || !rs.hasNext()) {
+					for(JdbcAnyRecord r : chunk) {
+						sum += r.getInt(id, 0);
+					}
+					if(null != pool)
+						pool.releaseAll(chunk);
+					chunk.clear();
+				}
+			}
+		}
+		m_rowsRead += ROWS;
+		return sum;
+	}
+}
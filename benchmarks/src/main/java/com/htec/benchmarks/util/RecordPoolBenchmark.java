@@ -0,0 +1,80 @@
+package com.htec.benchmarks.util;
+
+import com.htec.stubs.FakeResultSet;
+import com.htec.util.JdbcAnyRecord;
+import com.htec.util.RecordPool;
+import com.htec.util.RecordSchema;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One chunk of the stub rows per invocation, read into records, summed over the id column and then let go, as the
+ * loader does with RECORDS chunks: with a {@link RecordPool} the chunk's records are released and the next chunk
+ * reuses them, without it every row is a new record. Scores are per row; run with -prof gc to see the allocation
+ * per row, which with the pool is only the share of the per-chunk source.
+ */
+@NonNullByDefault
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(RecordPoolBenchmark.ROWS)
+public class RecordPoolBenchmark {
+	static final int ROWS = 1000;
+
+	@Param({"false", "true"})
+	public boolean pooled;
+
+	@Nullable
+	private RecordPool m_pool;
+
+	private final List<JdbcAnyRecord> m_chunk = new ArrayList<>(ROWS);
+
+	@Nullable
+	private RecordSchema.Column m_id;
+
+	@Setup
+	public void setup() throws Exception {
+		m_pool = pooled ? new RecordPool(ROWS) : null;
+		m_id = new FakeResultSet(1).next().getSchema().column("id");
+	}
+
+	@Benchmark
+	public long readChunk() {
+		RecordPool pool = m_pool;
+		RecordSchema.Column id = m_id;
+		if(null == id)
+			throw new IllegalStateException("Not set up");
+		FakeResultSet rs = new FakeResultSet(ROWS, pool);
+		List<JdbcAnyRecord> chunk = m_chunk;
+		while(rs.hasNext()) {
+			chunk.add(rs.next());
+		}
+		long sum = 0;
+		for(JdbcAnyRecord record : chunk) {
+			sum += record.getInt(id, 0);
+		}
+		if(null != pool)
+			pool.releaseAll(chunk);
+		chunk.clear();
+		return sum;
+	}
+}
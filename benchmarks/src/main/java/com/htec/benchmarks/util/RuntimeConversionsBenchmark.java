@@ -0,0 +1,90 @@
+package com.htec.benchmarks.util;
+
+import com.htec.util.JdbcAnyRecord;
+import com.htec.util.RuntimeConversions;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of {@link RuntimeConversions#convertTo(Object, Class)} for the type pairs that JDBC records typically
+ * need, directly and through {@link JdbcAnyRecord#getValue(Class, String)}. The later a target type comes in the
+ * chain of checks in convertTo, the more it costs; run with -prof gc to see which conversions allocate.
+ */
+@NonNullByDefault
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuntimeConversionsBenchmark {
+	@Param({"decimalToInteger", "decimalToLong", "decimalToDouble", "decimalToString", "decimalToDecimal", "stringToInteger", "stringToString", "integerToLong"})
+	public String conversion = "decimalToInteger";
+
+	private Object m_value = "";
+
+	private Class<?> m_target = Object.class;
+
+	private final JdbcAnyRecord m_record = new JdbcAnyRecord();
+
+	@Setup
+	public void setup() {
+		switch(conversion) {
+			default:
+				throw new IllegalStateException("Unknown conversion " + conversion);
+			case "decimalToInteger":
+				init(new BigDecimal("123456"), Integer.class);
+				break;
+			case "decimalToLong":
+				init(new BigDecimal("123456789012"), Long.class);
+				break;
+			case "decimalToDouble":
+				init(new BigDecimal("1234.5678"), Double.class);
+				break;
+			case "decimalToString":
+				init(new BigDecimal("1234.5678"), String.class);
+				break;
+			case "decimalToDecimal":
+				init(new BigDecimal("1234.5678"), BigDecimal.class);
+				break;
+			case "stringToInteger":
+				init("123456", Integer.class);
+				break;
+			case "stringToString":
+				init("some text", String.class);
+				break;
+			case "integerToLong":
+				init(Integer.valueOf(123456), Long.class);
+				break;
+		}
+		m_record.set("VALUE_COLUMN", m_value);
+	}
+
+	private void init(Object value, Class<?> target) {
+		m_value = value;
+		m_target = target;
+	}
+
+	@Benchmark
+	public Object convertTo() {
+		return RuntimeConversions.convertTo(m_value, m_target);
+	}
+
+	@Benchmark
+	public Object recordGetValue() {
+		return m_record.getValue(m_target, "VALUE_COLUMN");
+	}
+}
@@ -0,0 +1,141 @@
+package com.htec.benchmarks.util;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * A ResultSet positioned on a single row, with its metadata, for feeding JdbcAnyRecord.initFromRS without a
+ * database. Columns cycle through NUMERIC, VARCHAR and TIMESTAMP, and are named like COLUMN_NAME_0 in upper case,
+ * as most databases return them. The NUMERIC columns report the precision and scale they were made with. Both are
+ * dynamic proxies: each call costs a reflective dispatch, which is the
+ * same for every run and so does not hide differences in the code under test, though it does box the results of
+ * getInt and getLong.
+ */
+@NonNullByDefault
+final public class StubResultSet {
+	static private final int[] TYPES = {Types.NUMERIC, Types.VARCHAR, Types.TIMESTAMP};
+
+	private final String[] m_names;
+
+	private final int[] m_types;
+
+	private final Object[] m_values;
+
+	private final ResultSet m_resultSet;
+
+	private final ResultSetMetaData m_metaData;
+
+	private final int m_numericPrecision;
+
+	private final int m_numericScale;
+
+	/**
+	 * NUMERIC columns without precision, as for an unbounded NUMBER.
+	 */
+	public StubResultSet(int columnCount) {
+		this(columnCount, 0, 0);
+	}
+
+	public StubResultSet(int columnCount, int numericPrecision, int numericScale) {
+		m_numericPrecision = numericPrecision;
+		m_numericScale = numericScale;
+		m_names = new String[columnCount];
+		m_types = new int[columnCount];
+		m_values = new Object[columnCount];
+		for(int i = 0; i < columnCount; i++) {
+			m_names[i] = "COLUMN_NAME_" + i;
+			m_types[i] = TYPES[i % TYPES.length];
+			switch(m_types[i]) {
+				default:
+					throw new IllegalStateException("No value for type " + m_types[i]);
+				case Types.NUMERIC:
+					m_values[i] = BigDecimal.valueOf(1_000_000L + i);
+					break;
+				case Types.VARCHAR:
+					m_values[i] = "value of column " + i;
+					break;
+				case Types.TIMESTAMP:
+					m_values[i] = new Timestamp(1_700_000_000_000L + i);
+					break;
+			}
+		}
+		m_resultSet = (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ResultSet.class}, (proxy, method, args) -> resultSetCall(method, args));
+		m_metaData = (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ResultSetMetaData.class}, (proxy, method, args) -> metaDataCall(method, args));
+	}
+
+	public ResultSet getResultSet() {
+		return m_resultSet;
+	}
+
+	public ResultSetMetaData getMetaData() {
+		return m_metaData;
+	}
+
+	public String getColumnName(int index) {
+		return m_names[index];
+	}
+
+	public int getColumnCount() {
+		return m_names.length;
+	}
+
+	@Nullable
+	private Object resultSetCall(Method method, @Nullable Object[] args) {
+		switch(method.getName()) {
+			default:
+				throw new UnsupportedOperationException("ResultSet." + method.getName());
+			case "getBigDecimal":
+				return new BigDecimal(((BigDecimal) m_values[columnIndex(args)]).unscaledValue(), 0);	// Drivers decode a new one per call
+			case "getString":
+			case "getTimestamp":
+			case "getObject":
+				return m_values[columnIndex(args)];
+			case "getInt":
+				return ((BigDecimal) m_values[columnIndex(args)]).intValue();
+			case "getLong":
+				return ((BigDecimal) m_values[columnIndex(args)]).longValue();
+			case "getDouble":
+				return ((BigDecimal) m_values[columnIndex(args)]).doubleValue();
+			case "getMetaData":
+				return m_metaData;
+			case "wasNull":
+				return Boolean.FALSE;
+		}
+	}
+
+	@Nullable
+	private Object metaDataCall(Method method, @Nullable Object[] args) {
+		switch(method.getName()) {
+			default:
+				throw new UnsupportedOperationException("ResultSetMetaData." + method.getName());
+			case "getColumnCount":
+				return m_names.length;
+			case "getColumnName":
+			case "getColumnLabel":
+				return m_names[columnIndex(args)];
+			case "getColumnType":
+				return m_types[columnIndex(args)];
+			case "getPrecision":
+				return m_types[columnIndex(args)] == Types.NUMERIC ? m_numericPrecision : 0;
+			case "getScale":
+				return m_types[columnIndex(args)] == Types.NUMERIC ? m_numericScale : 0;
+		}
+	}
+
+	/**
+	 * The 0-based index for the 1-based JDBC column index argument.
+	 */
+	static private int columnIndex(@Nullable Object[] args) {
+		if(null == args || args.length != 1 || !(args[0] instanceof Integer))
+			throw new UnsupportedOperationException("Only access by column index is supported");
+		return (Integer) args[0] - 1;
+	}
+}
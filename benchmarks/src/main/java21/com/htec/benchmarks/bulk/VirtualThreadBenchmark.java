@@ -0,0 +1,123 @@
+package com.htec.benchmarks.bulk;
+
+import com.htec.examples.parallelrunner.bulk.AbstractTaskExecutor;
+import com.htec.examples.parallelrunner.bulk.BulkTaskRunner;
+import com.htec.examples.parallelrunner.virtual.VirtualThreads;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares platform and virtual thread executors at high concurrency, with tasks that block the way the
+ * augmentation tasks block on a remote service. Each invocation runs four waves of blocking tasks over all
+ * executors; the tasks counter gives the number of tasks completed per second.
+ */
+@NonNullByDefault
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VirtualThreadBenchmark {
+	private static final int WAVES = 4;
+
+	@Param({"platform", "virtual"})
+	public String backend = "platform";
+
+	@Param({"256", "1024", "4096"})
+	public int executors;
+
+	/** Simulated blocking I/O per task, in milliseconds. */
+	@Param({"10"})
+	public int blockMillis;
+
+	@Nullable
+	private BulkTaskRunner<CountDownLatch, Boolean> m_runner;
+
+	private final class BlockingExecutor extends AbstractTaskExecutor<CountDownLatch, Boolean> {
+		BlockingExecutor(BulkTaskRunner<CountDownLatch, Boolean> runner) {
+			super(runner);
+		}
+
+		@Override
+		protected void initialize() {
+		}
+
+		@Override
+		protected void terminate() {
+		}
+
+		@Override
+		protected Boolean executeOnce(CountDownLatch taskInfo) {
+			try {
+				Thread.sleep(blockMillis);
+			} catch(InterruptedException x) {
+				Thread.currentThread().interrupt();
+			}
+			taskInfo.countDown();
+			return Boolean.TRUE;
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		BulkTaskRunner<CountDownLatch, Boolean> runner = "virtual".equals(backend) ? VirtualThreads.newRunner() : new BulkTaskRunner<>();
+		runner.start(BlockingExecutor::new, executors);
+		m_runner = runner;
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		BulkTaskRunner<CountDownLatch, Boolean> runner = m_runner;
+		if(null != runner) {
+			runner.close();
+			m_runner = null;
+		}
+	}
+
+	@Benchmark
+	public void blockingWaves(TasksDone done) throws Exception {
+		BulkTaskRunner<CountDownLatch, Boolean> runner = m_runner;
+		if(null == runner)
+			throw new IllegalStateException("Runner not started");
+		int tasks = executors * WAVES;
+		CountDownLatch latch = new CountDownLatch(tasks);
+		for(int i = 0; i < tasks; i++) {
+			runner.addTask(latch);
+		}
+		latch.await();
+		done.tasks += tasks;
+	}
+
+	/**
+	 * Counts completed tasks, as the number of tasks per invocation depends on a parameter and cannot be
+	 * expressed with OperationsPerInvocation.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class TasksDone {
+		public long tasks;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			tasks = 0;
+		}
+	}
+}
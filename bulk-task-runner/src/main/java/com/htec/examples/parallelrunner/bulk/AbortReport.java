@@ -0,0 +1,41 @@
+package com.htec.examples.parallelrunner.bulk;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.util.List;
+
+/**
+ * What {@link BulkTaskRunner#abort(java.time.Duration)} left undone, so that it can be resubmitted later without
+ * reading the source again.
+ */
+@NonNullByDefault
+final public class AbortReport<T> {
+	private final List<T> m_unstartedTasks;
+
+	private final List<T> m_inFlightTasks;
+
+	AbortReport(List<T> unstartedTasks, List<T> inFlightTasks) {
+		m_unstartedTasks = List.copyOf(unstartedTasks);
+		m_inFlightTasks = List.copyOf(inFlightTasks);
+	}
+
+	/**
+	 * Tasks that were queued, handed to an executor or delayed but never started. Their futures are cancelled.
+	 */
+	public List<T> getUnstartedTasks() {
+		return m_unstartedTasks;
+	}
+
+	/**
+	 * Tasks whose executeOnce was running when the abort came. They were interrupted and may have done part of
+	 * their work; their futures complete with whatever executeOnce returned or threw.
+	 */
+	public List<T> getInFlightTasks() {
+		return m_inFlightTasks;
+	}
+
+	@Override
+	public String toString() {
+		return m_unstartedTasks.size() + " unstarted and " + m_inFlightTasks.size() + " in-flight tasks";
+	}
+}
@@ -4,22 +4,73 @@ import com.htec.util.WrappedException;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Executes tasks for a {@link BulkTaskRunner}, one at a time, on a thread of its own. The thread is created by
+ * the runner's thread factory, so it can be a platform or a virtual thread; initialize and terminate are always
+ * called on it, once, around all tasks this executor handles.
+ */
 @NonNullByDefault
-abstract public class AbstractTaskExecutor<T> extends Thread {
-	private final BulkTaskRunner<T> m_runner;
+abstract public class AbstractTaskExecutor<T, R> implements Runnable {
+	private final BulkTaskRunner<T, R> m_runner;
 
 	@Nullable
-	private T m_nextTask;
+	private Thread m_thread;
+
+	/**
+	 * The handoff slot. Only the runner sets it (from null to a task, after it popped us from the free stack),
+	 * and only this thread clears it, so no lock is needed.
+	 */
+	private final AtomicReference<TaskEntry<T, R>> m_nextTask = new AtomicReference<>();
+
+	/**
+	 * In queued mode: tasks waiting for this executor, per task class. The owner takes from the head, idle executors
+	 * steal from the tail.
+	 */
+	private final ConcurrentLinkedDeque<TaskEntry<T, R>> m_freshQueue = new ConcurrentLinkedDeque<>();
+
+	private final ConcurrentLinkedDeque<TaskEntry<T, R>> m_retryQueue = new ConcurrentLinkedDeque<>();
+
+	/** The number of queued tasks of both classes, or -1 when the queues are closed because the executor is retiring. */
+	private final AtomicInteger m_localQueueSize = new AtomicInteger();
+
+	/**
+	 * T while registered as free. Whoever flips it back (a producer claiming us, or we ourselves when we found
+	 * queued work) owns the executor; stale entries for us on the free stack are skipped by that rule.
+	 */
+	private final AtomicBoolean m_free = new AtomicBoolean();
 
-	private boolean m_finished;
+	private volatile boolean m_finished;
+
+	/** T when an elastic runner retired this executor because it was idle. */
+	private volatile boolean m_retired;
+
+	/** T when the runner was aborted: take no more tasks, and report the one running. */
+	private volatile boolean m_aborted;
+
+	private final ExecutorMetrics m_metrics = new ExecutorMetrics();
+
+	/** The task inside executeOnce, for reporting it when an abort times out. */
+	@Nullable
+	private volatile TaskEntry<T, R> m_currentTask;
 
 	abstract protected void initialize() throws Exception;
 
 	abstract protected void terminate() throws Exception;
 
-	abstract protected void executeOnce(T taskInfo);
+	/**
+	 * Execute one task. The result completes the future returned by {@link BulkTaskRunner#submit(Object)}; it
+	 * should be an immutable snapshot, as the executor moves on to its next task right away.
+	 */
+	abstract protected R executeOnce(T taskInfo);
 
-	public AbstractTaskExecutor(BulkTaskRunner<T> runner) {
+	public AbstractTaskExecutor(BulkTaskRunner<T, R> runner) {
 		m_runner = runner;
 	}
 
@@ -28,13 +79,17 @@ abstract public class AbstractTaskExecutor<T> extends Thread {
 		try {
 			initialize();
 		} catch(Exception x) {
-			m_runner.startFailed(x);
+			m_runner.startFailed(this, x);
 			return;
 		}
+		m_runner.executorStarted(this);
 
 		try {
 			runLoop();
 		} finally {
+			if(m_aborted) {
+				Thread.interrupted();						// Let terminate release resources normally
+			}
 			try {
 				terminate();
 			} catch(Exception x) {
@@ -50,56 +105,244 @@ abstract public class AbstractTaskExecutor<T> extends Thread {
 	 */
 	private void runLoop() {
 		for(;;) {
-			T task = waitForTask();
+			TaskEntry<T, R> task = waitForTask();
 			if(null == task)
 				break;
+			if(m_aborted) {
+				m_runner.taskAborted(task);					// Taken just as the abort came; never started
+				break;
+			}
+			m_currentTask = task;
+			R result = null;
+			Throwable error = null;
+			long startedAt = System.nanoTime();
+			long nanos = -1;
+			m_metrics.taskStarted(startedAt - task.getAddedAt());
 			try {
-				executeOnce(task);
+				result = executeOnce(task.getTask());
+				nanos = System.nanoTime() - startedAt;
+				m_metrics.taskExecuted(nanos, false);
+				m_runner.taskExecuted(task, nanos);
 				m_runner.taskFinished(this);
 			} catch(Exception | Error x) {
+				if(nanos < 0)									// executeOnce failed, not a callback
+					m_metrics.taskExecuted(System.nanoTime() - startedAt, true);
+				error = x;
 				m_runner.taskFailed(this, x);
+			} finally {
+				m_currentTask = null;
+				if(m_aborted && null != error) {
+					m_runner.taskInterrupted(task);			// A task that completed despite the abort is done, not in flight
+				}
+				m_runner.taskCompleted(task, result, error);
 			}
 		}
 	}
 
+	/**
+	 * Get the next task: one handed to us, or one queued (for us or stolen from another executor). Only when
+	 * there is none do we register as free and park. An elastic runner can retire us when we stay idle too long.
+	 */
 	@Nullable
-	private T waitForTask() {
-		m_runner.taskFree(this);
-		synchronized(this) {
-			for(;;) {
-				//-- FIRST check for a task before we check for termination, or we might miss the last task
-				T task = m_nextTask;
-				if(null != task) {
-					m_nextTask = null;
-					return task;
-				}
+	private TaskEntry<T, R> waitForTask() {
+		if(m_aborted)
+			return null;
+		TaskEntry<T, R> task = takeHandedTask();
+		if(null == task)
+			task = m_runner.takeQueuedTask(this);
+		if(null != task)
+			return task;
+
+		if(!m_finished)
+			m_runner.taskFree(this);
+		long idleTimeout = m_runner.getIdleTimeoutNanos();
+		long idleSince = System.nanoTime();
+		for(;;) {
+			if(m_aborted)
+				return null;
+
+			//-- FIRST check for a task before we check for termination, or we might miss the last task
+			task = takeHandedTask();
+			if(null != task)
+				return task;
+
+			//-- Work may have been queued between our last look and registering as free.
+			task = m_runner.takeQueuedTask(this);
+			if(null != task) {
+				m_runner.taskUnfree(this);
+				return task;
+			}
 
-				//-- Are we finished?
-				if(m_finished)
-					return null;
+			//-- Are we finished?
+			if(m_finished)
+				return null;
 
-				//-- Wait for work to arrive
-				try {
-					wait();
-				} catch(Exception x) {
-					throw WrappedException.wrap(x);
+			//-- Wait for work to arrive; spurious wakeups just cause another check.
+			if(idleTimeout > 0) {
+				LockSupport.parkNanos(this, idleTimeout);
+				if(System.nanoTime() - idleSince >= idleTimeout) {
+					if(m_runner.tryRetire(this))
+						return null;
+					idleSince = System.nanoTime();
 				}
+			} else {
+				LockSupport.park(this);
 			}
+			if(Thread.interrupted() && !m_aborted)
+				throw WrappedException.wrap(new InterruptedException());
 		}
 	}
 
+	@Nullable
+	private TaskEntry<T, R> takeHandedTask() {
+		TaskEntry<T, R> task = m_nextTask.get();
+		if(null != task)
+			m_nextTask.set(null);
+		return task;
+	}
+
 	/**
-	 * This will cause the task to terminate EXCEPT if there is still a task present(!). So it cannot be used to ABORT!
+	 * This will cause the task to terminate EXCEPT if there is still a task present(!). So it cannot be used to ABORT! Use abort for that.
 	 */
-	synchronized void setFinished() {
+	void setFinished() {
 		m_finished = true;
-		notifyAll();
+		unpark();
+	}
+
+	/**
+	 * Finish an idle executor for an elastic runner; the runner has claimed it and closed its queue first.
+	 */
+	void retire() {
+		m_retired = true;
+		setFinished();
+	}
+
+	boolean isRetired() {
+		return m_retired;
+	}
+
+	/**
+	 * Stop taking tasks, and interrupt the running one. Tasks still in our slot or queues are left for the runner to drain.
+	 */
+	void abort() {
+		m_aborted = true;
+		m_finished = true;
+		Thread thread = m_thread;
+		if(null != thread)
+			thread.interrupt();
+	}
+
+	ExecutorMetrics getMetrics() {
+		return m_metrics;
 	}
 
-	synchronized void setTask(T task) {
-		if(m_nextTask != null)
+	@Nullable
+	TaskEntry<T, R> getCurrentTask() {
+		return m_currentTask;
+	}
+
+	/**
+	 * After an abort: move the tasks never taken by this executor to the list.
+	 */
+	void drainUnstarted(List<TaskEntry<T, R>> into) {
+		TaskEntry<T, R> task = m_nextTask.getAndSet(null);
+		if(null != task)
+			into.add(task);
+		for(TaskClass taskClass : TaskClass.values()) {
+			while(null != (task = localQueue(taskClass).pollFirst())) {
+				into.add(task);
+			}
+		}
+		m_localQueueSize.set(-1);
+	}
+
+	/**
+	 * After an abort: take a task that was handed to or queued for us back, if nobody took it yet.
+	 */
+	boolean takeBack(TaskEntry<T, R> task) {
+		return m_nextTask.compareAndSet(task, null) || localQueue(task.getTaskClass()).removeLastOccurrence(task);
+	}
+
+	void setTask(TaskEntry<T, R> task) {
+		if(!m_nextTask.compareAndSet(null, task))
 			throw new IllegalStateException("?? Task already set!!");
-		m_nextTask = task;
-		notifyAll();
+		unpark();
+	}
+
+	void setThread(Thread thread) {
+		if(m_thread != null)
+			throw new IllegalStateException("Executor already has a thread");
+		m_thread = thread;
+	}
+
+	Thread getThread() {
+		Thread thread = m_thread;
+		if(null == thread)
+			throw new IllegalStateException("Executor has not been started");
+		return thread;
+	}
+
+	void unpark() {
+		Thread thread = m_thread;
+		if(null != thread)
+			LockSupport.unpark(thread);
+	}
+
+	void markFree() {
+		m_free.set(true);
+	}
+
+	/**
+	 * Take this executor out of the free state; returns false if someone else did that first.
+	 */
+	boolean claim() {
+		return m_free.compareAndSet(true, false);
+	}
+
+	/**
+	 * Queue a task locally if we have room for it.
+	 */
+	boolean offerLocal(TaskEntry<T, R> task, int capacity) {
+		for(;;) {
+			int size = m_localQueueSize.get();
+			if(size < 0 || size >= capacity)
+				return false;
+			if(m_localQueueSize.compareAndSet(size, size + 1))
+				break;
+		}
+		localQueue(task.getTaskClass()).addLast(task);
+		unpark();
+		return true;
+	}
+
+	@Nullable
+	TaskEntry<T, R> pollLocal(TaskClass taskClass) {
+		TaskEntry<T, R> task = localQueue(taskClass).pollFirst();
+		if(null != task)
+			m_localQueueSize.decrementAndGet();
+		return task;
+	}
+
+	@Nullable
+	TaskEntry<T, R> stealLocal(TaskClass taskClass) {
+		TaskEntry<T, R> task = localQueue(taskClass).pollLast();
+		if(null != task)
+			m_localQueueSize.decrementAndGet();
+		return task;
+	}
+
+	private ConcurrentLinkedDeque<TaskEntry<T, R>> localQueue(TaskClass taskClass) {
+		return taskClass == TaskClass.RETRY ? m_retryQueue : m_freshQueue;
+	}
+
+	/**
+	 * Close the local queue for new tasks, but only if it is empty.
+	 */
+	boolean closeLocal() {
+		return m_localQueueSize.compareAndSet(0, -1);
+	}
+
+	void reopenLocal() {
+		m_localQueueSize.compareAndSet(-1, 0);
 	}
 }
@@ -0,0 +1,82 @@
+package com.htec.examples.parallelrunner.bulk;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.time.Duration;
+
+/**
+ * Chooses the size of the next batch so that executing a batch takes about a target duration. The runner reports
+ * how long each batch took in executeOnce (see {@link BulkTaskRunner#setBatchSizer}); from that a moving average of
+ * the time per item is kept, and the batch size moves toward target / time per item, within the bounds. The size
+ * at most doubles or halves per measured batch, so a single slow or fast batch cannot swing it.
+ */
+@NonNullByDefault
+final public class AdaptiveBatchSizer {
+	/** The weight of a new measurement in the moving averages. */
+	static private final double SMOOTHING = 0.2d;
+
+	private final int m_minSize;
+
+	private final int m_maxSize;
+
+	private final long m_targetNanos;
+
+	private int m_batchSize;
+
+	/** Moving averages over the measured batches; only valid when m_measuredBatches > 0. */
+	private double m_nanosPerItem;
+
+	private double m_batchNanos;
+
+	private long m_measuredBatches;
+
+	public AdaptiveBatchSizer(int minSize, int maxSize, int initialSize, Duration targetBatchDuration) {
+		if(minSize < 1 || maxSize < minSize)
+			throw new IllegalArgumentException("Invalid batch size bounds " + minSize + ".." + maxSize);
+		if(targetBatchDuration.isZero() || targetBatchDuration.isNegative())
+			throw new IllegalArgumentException("The target batch duration must be positive");
+		m_minSize = minSize;
+		m_maxSize = maxSize;
+		m_batchSize = Math.max(minSize, Math.min(maxSize, initialSize));
+		m_targetNanos = targetBatchDuration.toNanos();
+	}
+
+	/**
+	 * The size to use for the next batch.
+	 */
+	public synchronized int getBatchSize() {
+		return m_batchSize;
+	}
+
+	/**
+	 * Record that a batch of the given size took nanos to execute, and adjust the batch size.
+	 */
+	public synchronized void record(int batchSize, long nanos) {
+		if(batchSize <= 0)
+			return;
+		double perItem = (double) Math.max(1L, nanos) / batchSize;
+		if(m_measuredBatches++ == 0) {
+			m_nanosPerItem = perItem;
+			m_batchNanos = nanos;
+		} else {
+			m_nanosPerItem += SMOOTHING * (perItem - m_nanosPerItem);
+			m_batchNanos += SMOOTHING * (nanos - m_batchNanos);
+		}
+
+		long wanted = Math.round(m_targetNanos / m_nanosPerItem);
+		wanted = Math.max(m_batchSize / 2, Math.min(2L * m_batchSize, wanted));
+		m_batchSize = (int) Math.max(m_minSize, Math.min(m_maxSize, wanted));
+	}
+
+	public synchronized String getStatus() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("batch size ").append(m_batchSize).append(" (").append(m_minSize).append("..").append(m_maxSize)
+			.append(", target ").append(m_targetNanos / 1_000_000).append("ms)");
+		if(m_measuredBatches > 0) {
+			sb.append(", avg batch ").append(Math.round(m_batchNanos / 1_000_000d)).append("ms, ")
+				.append(Math.round(1_000_000_000d / m_nanosPerItem)).append(" items/s per executor over ")
+				.append(m_measuredBatches).append(" batches");
+		}
+		return sb.toString();
+	}
+}
@@ -5,57 +5,272 @@ import com.htec.util.WrappedException;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 
+/**
+ * Runs tasks on a set of executor threads. Handing a task to an executor is lock-free: free
+ * executors push themselves on a concurrent stack, a producer pops and claims one and places the task
+ * in that executor's slot, then unparks it. The runner's monitor is only used for the start and finish
+ * handshakes, never per task.
+ *
+ * <p>By default addTask blocks until an executor is free. In queued mode (see {@link #setQueueCapacity(int, int)})
+ * each executor also has a small local queue, idle executors steal from the queues of busy ones, and
+ * addTask only blocks once the total queue capacity is used up. Every executor still runs one task at a time.</p>
+ *
+ * <p>The number of executors is fixed unless the runner is made elastic (see {@link #setElastic(int, int, Duration, Duration)}):
+ * it then adds executors while producers block or queued tasks wait too long, and retires executors that stay idle.</p>
+ *
+ * <p>Each task has a {@link TaskClass}, fresh or retry. When tasks of both classes compete, for a free executor or
+ * for being taken from the queues, the {@link DispatchPolicy} decides which goes first; by default retries do.</p>
+ *
+ * <p>close lets running tasks finish. To stop a bad run quickly use {@link #abort(Duration)}: it interrupts the
+ * executors and returns the tasks that did not run or were cut short.</p>
+ */
 @NonNullByDefault
-final public class BulkTaskRunner<T> implements AutoCloseable {
+final public class BulkTaskRunner<T, R> implements AutoCloseable {
 
-	private final List<AbstractTaskExecutor<T>> m_allThreadList = new ArrayList<>();
+	private final List<AbstractTaskExecutor<T, R>> m_allThreadList = new CopyOnWriteArrayList<>();
 
-	private final List<AbstractTaskExecutor<T>> m_freeThreadList = new ArrayList<>();
+	/** Stack of idle executors (LIFO, so that the most recently used, cache-warm thread gets the next task). */
+	private final ConcurrentLinkedDeque<AbstractTaskExecutor<T, R>> m_freeStack = new ConcurrentLinkedDeque<>();
 
-	private boolean m_finished;
+	/** The number of executors on the free stack; maintained separately because the deque's size() is O(n). */
+	private final AtomicInteger m_freeCount = new AtomicInteger();
+
+	/** Producers of fresh tasks parked in addTask because no executor was free. */
+	private final ConcurrentLinkedQueue<Thread> m_waitingFreshProducers = new ConcurrentLinkedQueue<>();
+
+	/** Producers of retries parked because no executor was free; usually the delayed task scheduler. */
+	private final ConcurrentLinkedQueue<Thread> m_waitingRetryProducers = new ConcurrentLinkedQueue<>();
+
+	/** Tasks added but not yet completely handled, i.e. including their completion callbacks. */
+	private final AtomicInteger m_pendingCount = new AtomicInteger();
+
+	/** The number of tasks sitting in the local queues of executors, bounded by m_totalQueueCapacity. */
+	private final AtomicInteger m_queuedCount = new AtomicInteger();
+
+	/** The queued tasks per class; a class is only looked for in the queues while its count is > 0. */
+	private final AtomicInteger m_queuedFreshCount = new AtomicInteger();
+
+	private final AtomicInteger m_queuedRetryCount = new AtomicInteger();
+
+	/** Round-robin index for choosing the executor queue a task is added to. */
+	private final AtomicInteger m_nextQueueIndex = new AtomicInteger();
+
+	/** The number of executors, including ones that are still starting. */
+	private final AtomicInteger m_executorCount = new AtomicInteger();
+
+	/** The number of executors started but not yet initialized; an elastic runner only grows when none are. */
+	private final AtomicInteger m_startingCount = new AtomicInteger();
+
+	private ThreadFactory m_threadFactory = BulkTaskRunner::newPlatformThread;
+
+	/** Completes the futures of submitted tasks, so that executors never run the caller's dependent stages. */
+	private Executor m_completionExecutor = ForkJoinPool.commonPool();
+
+	private DispatchPolicy m_dispatchPolicy = DispatchPolicy.retryFirst();
+
+	@Nullable
+	private AdaptiveBatchSizer m_batchSizer;
 
 	@Nullable
-	private Exception m_failed;
+	private ToIntFunction<? super T> m_batchSizeOf;
 
 	@Nullable
-	private Consumer<? super AbstractTaskExecutor<T>> m_onTaskCompleted;
+	private FunctionEx<BulkTaskRunner<T, R>, AbstractTaskExecutor<T, R>> m_executorSupplier;
+
+	/** Elastic mode: the bounds for the number of executors; 0 when not elastic. */
+	private int m_minThreads;
+
+	private int m_maxThreads;
 
+	/** Elastic mode: retire executors idle for this long. */
+	private long m_idleTimeoutNanos;
+
+	/** Elastic mode: add an executor when a queued task waited longer than this before it started. */
+	private long m_growQueueWaitNanos;
+
+	/** Set once the initial executors are all up; start failures after that only lose the one executor. */
+	private volatile boolean m_started;
+
+	/** Created on the first submitAfter. */
 	@Nullable
-	private BiConsumer<? super AbstractTaskExecutor<T>, Throwable> m_onTaskFailed;
+	private DelayedTaskScheduler<T, R> m_scheduler;
+
+	/** Set by signalWork, cleared by the awaitWorkOrQuiescence call it wakes. Guarded by this. */
+	private boolean m_workSignalled;
+
+	/** When > 0 we run in queued mode, and this is the max number of tasks queued per executor. */
+	private int m_executorQueueCapacity;
+
+	private int m_totalQueueCapacity;
+
+	private volatile boolean m_finished;
+
+	private volatile boolean m_aborted;
+
+	/** During an abort: tasks that executors took but did not start, and those that were running. */
+	private final ConcurrentLinkedQueue<TaskEntry<T, R>> m_abortedUnstarted = new ConcurrentLinkedQueue<>();
+
+	private final ConcurrentLinkedQueue<TaskEntry<T, R>> m_abortedInFlight = new ConcurrentLinkedQueue<>();
+
+	/** The metrics of executors that have stopped, so that the totals survive retiring executors. */
+	private final ExecutorMetrics m_stoppedMetrics = new ExecutorMetrics();
+
+	@Nullable
+	private ObjectName m_mbeanName;
+
+	@Nullable
+	private volatile Exception m_failed;
+
+	@Nullable
+	private Consumer<? super AbstractTaskExecutor<T, R>> m_onTaskCompleted;
+
+	@Nullable
+	private BiConsumer<? super AbstractTaskExecutor<T, R>, Throwable> m_onTaskFailed;
+
+	/**
+	 * Switch to queued mode; must be called before start. Each executor can hold up to perExecutor tasks
+	 * besides the one it is running, with at most total tasks queued over all executors.
+	 */
+	public void setQueueCapacity(int perExecutor, int total) {
+		if(perExecutor < 0 || total < 0)
+			throw new IllegalArgumentException("Queue capacity cannot be negative");
+		if(!m_allThreadList.isEmpty())
+			throw new IllegalStateException("The runner has already been started");
+		m_executorQueueCapacity = perExecutor;
+		m_totalQueueCapacity = total;
+	}
+
+	/**
+	 * Set the factory creating the thread for each executor; must be called before start. The default creates
+	 * platform daemon threads. Passing a virtual thread factory (Java 21+) lets a runner have thousands of
+	 * executors blocking on I/O without needing as many OS threads.
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		if(!m_allThreadList.isEmpty())
+			throw new IllegalStateException("The runner has already been started");
+		m_threadFactory = threadFactory;
+	}
+
+	/**
+	 * Make the pool elastic; must be called before start. The pool then holds between minThreads and maxThreads
+	 * executors, all created by the executor supplier passed to start. An executor is added when a producer would
+	 * block in addTask, or in queued mode when a task waited longer than growQueueWait in a queue. An executor
+	 * that was idle for idleTimeout is retired through setFinished, so its terminate releases its resources.
+	 */
+	public void setElastic(int minThreads, int maxThreads, Duration idleTimeout, Duration growQueueWait) {
+		if(minThreads < 1 || maxThreads < minThreads)
+			throw new IllegalArgumentException("Invalid pool bounds " + minThreads + ".." + maxThreads);
+		if(!m_allThreadList.isEmpty())
+			throw new IllegalStateException("The runner has already been started");
+		m_minThreads = minThreads;
+		m_maxThreads = maxThreads;
+		m_idleTimeoutNanos = idleTimeout.toNanos();
+		m_growQueueWaitNanos = growQueueWait.toNanos();
+	}
+
+	/**
+	 * Set the executor used to complete the futures returned by submit; the default is the common fork/join pool.
+	 * Executor threads never complete futures themselves, so they never block on stages the caller attached.
+	 */
+	public void setCompletionExecutor(Executor completionExecutor) {
+		m_completionExecutor = completionExecutor;
+	}
+
+	/**
+	 * Set the policy deciding whether fresh tasks or retries go first when both are waiting; must be called before start.
+	 */
+	public void setDispatchPolicy(DispatchPolicy dispatchPolicy) {
+		if(!m_allThreadList.isEmpty())
+			throw new IllegalStateException("The runner has already been started");
+		m_dispatchPolicy = dispatchPolicy;
+	}
+
+	/**
+	 * Report how long each task took in executeOnce to a batch sizer; must be called before start. For tasks that
+	 * are batches, batchSizeOf tells the number of items in one. Failed tasks are not reported.
+	 */
+	public void setBatchSizer(AdaptiveBatchSizer batchSizer, ToIntFunction<? super T> batchSizeOf) {
+		if(!m_allThreadList.isEmpty())
+			throw new IllegalStateException("The runner has already been started");
+		m_batchSizer = batchSizer;
+		m_batchSizeOf = batchSizeOf;
+	}
+
+	/**
+	 * Publish this runner's metrics as a platform MXBean named com.htec.examples.parallelrunner:type=BulkTaskRunner,name=[name],
+	 * so that the dispatch wait and execution percentiles can be watched with JConsole or any JMX client. It is
+	 * unregistered by close.
+	 */
+	public synchronized void registerMBean(String name) throws JMException {
+		if(null != m_mbeanName)
+			throw new IllegalStateException("The MBean is already registered as " + m_mbeanName);
+		ObjectName objectName = new ObjectName("com.htec.examples.parallelrunner:type=BulkTaskRunner,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(new BulkTaskRunnerMetrics(this), objectName);
+		m_mbeanName = objectName;
+	}
+
+	static private Thread newPlatformThread(Runnable runnable) {
+		Thread thread = new Thread(runnable);
+		thread.setDaemon(true);
+		return thread;
+	}
 
 	/**
 	 * Starts execution of threads. Uses specified capacity of threads, and blocks in adding tasks if no threads are available.
 	 * Call addTask to add tasks, and waitTillFinished at the end to wait for all work to complete. Call close after that.
 	 */
-	public void start(FunctionEx<BulkTaskRunner<T>, AbstractTaskExecutor<T>> executorSupplier, int nThreads) throws Exception {
+	public void start(FunctionEx<BulkTaskRunner<T, R>, AbstractTaskExecutor<T, R>> executorSupplier, int nThreads) throws Exception {
 		start(executorSupplier, nThreads, null, null);
 	}
 
 	/**
 	 * Adds optional callbacks for each individual completed or failed executor task to handle possible re-work in tasks.
+	 * For an elastic runner nThreads is the initial number of executors, forced within its bounds.
 	 */
-	public void start(FunctionEx<BulkTaskRunner<T>, AbstractTaskExecutor<T>> executorSupplier, int nThreads, @Nullable Consumer<? super AbstractTaskExecutor<T>> onTaskCompleted, @Nullable BiConsumer<? super AbstractTaskExecutor<T>, Throwable> onTaskFailed) throws Exception {
+	public void start(FunctionEx<BulkTaskRunner<T, R>, AbstractTaskExecutor<T, R>> executorSupplier, int nThreads, @Nullable Consumer<? super AbstractTaskExecutor<T, R>> onTaskCompleted, @Nullable BiConsumer<? super AbstractTaskExecutor<T, R>, Throwable> onTaskFailed) throws Exception {
 		m_onTaskCompleted = onTaskCompleted;
 		m_onTaskFailed = onTaskFailed;
+		m_executorSupplier = executorSupplier;
+		if(m_maxThreads > 0) {
+			nThreads = Math.max(m_minThreads, Math.min(m_maxThreads, nThreads));
+		}
 		try {
 			synchronized(this) {
 				m_finished = false;
 
 				for(int i = 0; i < nThreads; i++) {
-					AbstractTaskExecutor<T> executor = executorSupplier.apply(this);
-					m_allThreadList.add(executor);
-					executor.setDaemon(true);
-					executor.start();
+					m_executorCount.incrementAndGet();
+					m_startingCount.incrementAndGet();
+					startExecutor(executorSupplier);
 				}
 			}
 
 			//-- Wait for all threads to become available OR for a start failure.
 			waitForStart();
+			m_started = true;
 
 		} catch(Exception | Error x) {
 			close();
@@ -63,6 +278,80 @@ final public class BulkTaskRunner<T> implements AutoCloseable {
 		}
 	}
 
+	/**
+	 * Create and start one executor; the caller has already counted it.
+	 */
+	private void startExecutor(FunctionEx<BulkTaskRunner<T, R>, AbstractTaskExecutor<T, R>> executorSupplier) throws Exception {
+		AbstractTaskExecutor<T, R> executor = executorSupplier.apply(this);
+		Thread thread = m_threadFactory.newThread(executor);
+		executor.setThread(thread);
+		m_allThreadList.add(executor);
+		thread.start();
+		if(m_finished) {
+			executor.setFinished();				// We raced with close()
+		}
+	}
+
+	/**
+	 * Elastic mode: add an executor if we're below the max and no other executor is starting up.
+	 */
+	private void tryGrow() {
+		FunctionEx<BulkTaskRunner<T, R>, AbstractTaskExecutor<T, R>> executorSupplier = m_executorSupplier;
+		if(m_maxThreads <= 0 || !m_started || m_finished || null == executorSupplier)
+			return;
+		if(!m_startingCount.compareAndSet(0, 1))
+			return;
+		for(;;) {
+			int count = m_executorCount.get();
+			if(count >= m_maxThreads) {
+				m_startingCount.decrementAndGet();
+				return;
+			}
+			if(m_executorCount.compareAndSet(count, count + 1))
+				break;
+		}
+		try {
+			startExecutor(executorSupplier);
+		} catch(Exception x) {
+			m_executorCount.decrementAndGet();
+			m_startingCount.decrementAndGet();
+			System.err.println("Failed to add an executor: " + x);
+			x.printStackTrace();
+		}
+	}
+
+	/**
+	 * Elastic mode: called by an executor that has been idle for the idle timeout. It retires if that keeps us at or
+	 * above the minimum, its queue is empty and no producer claimed it; it is then marked finished.
+	 */
+	boolean tryRetire(AbstractTaskExecutor<T, R> executor) {
+		if(m_maxThreads <= 0 || m_finished)
+			return false;
+		for(;;) {
+			int count = m_executorCount.get();
+			if(count <= m_minThreads)
+				return false;
+			if(m_executorCount.compareAndSet(count, count - 1))
+				break;
+		}
+		if(!executor.closeLocal()) {
+			m_executorCount.incrementAndGet();
+			return false;
+		}
+		if(!executor.claim()) {
+			executor.reopenLocal();
+			m_executorCount.incrementAndGet();
+			return false;
+		}
+		m_freeCount.decrementAndGet();
+		executor.retire();
+		return true;
+	}
+
+	long getIdleTimeoutNanos() {
+		return m_idleTimeoutNanos;
+	}
+
 	private void waitForStart() throws Exception {
 		Exception error;
 		long ets = System.currentTimeMillis() + 120 * 1000;
@@ -72,7 +361,7 @@ final public class BulkTaskRunner<T> implements AutoCloseable {
 				if(error != null) {
 					break;
 				}
-				if(m_freeThreadList.size() == m_allThreadList.size()) {
+				if(m_freeCount.get() == m_allThreadList.size()) {
 					return;									// All are there
 				}else {
 
@@ -102,29 +391,298 @@ final public class BulkTaskRunner<T> implements AutoCloseable {
 	}
 
 	public void addTask(T task) {
-		AbstractTaskExecutor<T> exec;
-		synchronized(this) {
+		addTask(task, TaskClass.FRESH);
+	}
+
+	public void addTask(T task, TaskClass taskClass) {
+		addEntry(new TaskEntry<>(task, null, taskClass));
+	}
+
+	/**
+	 * Add a task like addTask, and return a future completed with the result of its executeOnce (or failed
+	 * with what it threw). The task counts as pending until the future's non-async dependent stages have run,
+	 * so follow-up work added from such a stage is seen by waitTillFinished.
+	 */
+	public CompletableFuture<R> submit(T task) {
+		return submit(task, TaskClass.FRESH);
+	}
+
+	public CompletableFuture<R> submit(T task, TaskClass taskClass) {
+		CompletableFuture<R> future = new CompletableFuture<>();
+		addEntry(new TaskEntry<>(task, future, taskClass));
+		return future;
+	}
+
+	public CompletableFuture<R> submitAfter(T task, Duration delay) {
+		return submitAfter(task, delay, TaskClass.FRESH);
+	}
+
+	/**
+	 * Submit a task that becomes ready after the given delay, typically a retry (see {@link RetryBackoff}). Until
+	 * then the task is held by the runner, not by an executor, and counts as pending. This never blocks.
+	 */
+	public CompletableFuture<R> submitAfter(T task, Duration delay, TaskClass taskClass) {
+		if(delay.isZero() || delay.isNegative())
+			return submit(task, taskClass);
+		if(m_finished) {
+			throw new IllegalStateException("Attempt to add task while we're finished");
+		}
+		CompletableFuture<R> future = new CompletableFuture<>();
+		m_pendingCount.incrementAndGet();
+		getScheduler().schedule(task, future, taskClass, delay.toNanos());
+		return future;
+	}
+
+	private synchronized DelayedTaskScheduler<T, R> getScheduler() {
+		DelayedTaskScheduler<T, R> scheduler = m_scheduler;
+		if(null == scheduler) {
+			scheduler = m_scheduler = new DelayedTaskScheduler<>(this);
+			scheduler.start();
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Called by the scheduler when a delayed task is due; it was counted as pending when it was submitted.
+	 */
+	void dispatchDelayed(TaskEntry<T, R> entry) {
+		try {
+			if(m_finished) {
+				throw new IllegalStateException("Delayed task became due after the runner finished");
+			}
+			if(hasWaitingCompetitor(entry.getTaskClass()) || !tryDispatch(entry)) {
+				waitAndDispatch(entry);
+			}
+		} catch(Exception | Error x) {
+			if(m_aborted) {
+				m_abortedUnstarted.add(entry);
+			} else {
+				taskCompleted(entry, null, x);
+			}
+		}
+	}
+
+	private void addEntry(TaskEntry<T, R> entry) {
+		if(m_finished) {
+			throw new IllegalStateException("Attempt to add task while we're finished");
+		}
+		m_pendingCount.incrementAndGet();
+		try {
+			if(hasWaitingCompetitor(entry.getTaskClass()) || !tryDispatch(entry)) {
+				waitAndDispatch(entry);
+			}
+		} catch(Exception | Error x) {
+			taskDone();
+			throw x;
+		}
+	}
+
+	/**
+	 * Hand the task to a free executor or, in queued mode, queue it if there is room. Returns false if neither is possible.
+	 */
+	private boolean tryDispatch(TaskEntry<T, R> task) {
+		AbstractTaskExecutor<T, R> exec = popFreeExecutor();
+		if(null != exec) {
+			exec.setTask(task);
+			if(m_aborted && exec.takeBack(task))
+				cancelAborted(task);					// Handed over after abort drained this executor
+			return true;
+		}
+		if(m_executorQueueCapacity > 0) {
+			return tryQueueTask(task);
+		}
+		return false;
+	}
+
+	private boolean tryQueueTask(TaskEntry<T, R> task) {
+		for(;;) {
+			int queued = m_queuedCount.get();
+			if(queued >= m_totalQueueCapacity)
+				return false;
+			if(m_queuedCount.compareAndSet(queued, queued + 1))
+				break;
+		}
+
+		//-- Counted before it becomes visible in a queue, so that a taker seeing a zero count can skip that class
+		AtomicInteger classCount = queuedCount(task.getTaskClass());
+		classCount.incrementAndGet();
+
+		//-- Find an executor with room, round-robin
+		AbstractTaskExecutor<T, R> target = null;
+		Object[] all = m_allThreadList.toArray();
+		int start = m_nextQueueIndex.getAndIncrement();
+		for(int i = 0; i < all.length; i++) {
+			@SuppressWarnings("unchecked")
+			AbstractTaskExecutor<T, R> exec = (AbstractTaskExecutor<T, R>) all[Math.floorMod(start + i, all.length)];
+			if(exec.offerLocal(task, m_executorQueueCapacity)) {
+				target = exec;
+				break;
+			}
+		}
+		if(null == target) {
+			classCount.decrementAndGet();
+			m_queuedCount.decrementAndGet();
+			return false;
+		}
+		if(m_aborted && target.takeBack(task)) {
+			cancelAborted(task);						// Queued after abort drained the queue; abort resets the counts
+			return true;
+		}
+
+		//-- If an executor became free in the meantime wake it up, so that it steals the task right away
+		if(m_freeCount.get() > 0) {
+			AbstractTaskExecutor<T, R> idle = m_freeStack.peekFirst();
+			if(null != idle) {
+				idle.unpark();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A task that a producer added while the runner was being aborted, too late for the abort report.
+	 */
+	private void cancelAborted(TaskEntry<T, R> task) {
+		taskCompleted(task, null, new CancellationException("The runner was aborted before the task started"));
+	}
+
+	/**
+	 * Pop and claim a free executor. Entries for executors that un-freed themselves are stale and just dropped.
+	 */
+	@Nullable
+	private AbstractTaskExecutor<T, R> popFreeExecutor() {
+		for(;;) {
+			AbstractTaskExecutor<T, R> exec = m_freeStack.pollFirst();
+			if(null == exec)
+				return null;
+			if(exec.claim()) {
+				m_freeCount.decrementAndGet();
+				return exec;
+			}
+		}
+	}
+
+	/**
+	 * Park the calling producer until an executor becomes free or queue room appears. The producer registers itself
+	 * before re-checking, and executors signal after freeing up or taking a queued task, so no wakeup can be lost.
+	 * A producer that finds producers of the other class waiting first lets the policy decide; if it has to yield,
+	 * it wakes the one it yields to and only tries itself once it is signalled.
+	 */
+	private void waitAndDispatch(TaskEntry<T, R> task) {
+		Thread me = Thread.currentThread();
+		ConcurrentLinkedQueue<Thread> waiting = waitingProducers(task.getTaskClass());
+		waiting.add(me);
+		try {
+			boolean yielding = mustYield(task.getTaskClass());
 			for(;;) {
 				if(m_finished) {
 					throw new IllegalStateException("Attempt to add task while we're finished");
 				}
-				if(m_freeThreadList.size() > 0) {
-					exec = m_freeThreadList.remove(m_freeThreadList.size() - 1);
-					break;
+				if(yielding) {
+					yielding = false;
+				} else {
+					if(tryDispatch(task)) {
+						if(hasWaitingCompetitor(task.getTaskClass()))
+							m_dispatchPolicy.commit(task.getTaskClass());
+						return;
+					}
+					tryGrow();
 				}
-				try {
-					wait();
-				} catch(Exception x) {
-					throw WrappedException.wrap(x);
+				LockSupport.park(this);
+				if(Thread.interrupted()) {
+					throw WrappedException.wrap(new InterruptedException());
 				}
 			}
+		} finally {
+			waiting.remove(me);
+
+			//-- Executors only wake the first waiter; if more room is available pass the signal on to the next one.
+			if(!m_freeStack.isEmpty() || (m_executorQueueCapacity > 0 && m_queuedCount.get() < m_totalQueueCapacity)) {
+				signalWaitingProducer();
+			}
 		}
-		exec.setTask(task);
 	}
 
-	synchronized void startFailed(Exception x) {
-		m_failed = x;
-		notifyAll();
+	/**
+	 * Wake the first waiting producer, of the class the policy prefers when producers of both classes wait.
+	 */
+	private void signalWaitingProducer() {
+		Thread fresh = m_waitingFreshProducers.peek();
+		Thread retry = m_waitingRetryProducers.peek();
+		Thread waiter = chooseClass(null != fresh, null != retry) == TaskClass.RETRY ? retry : fresh;
+		if(null != waiter) {
+			LockSupport.unpark(waiter);
+		}
+	}
+
+	private ConcurrentLinkedQueue<Thread> waitingProducers(TaskClass taskClass) {
+		return taskClass == TaskClass.RETRY ? m_waitingRetryProducers : m_waitingFreshProducers;
+	}
+
+	/**
+	 * T when producers of the other class are waiting, so a producer of this class may not just take a free executor.
+	 */
+	private boolean hasWaitingCompetitor(TaskClass taskClass) {
+		return !waitingProducers(other(taskClass)).isEmpty();
+	}
+
+	/**
+	 * Called by a just registered producer: if the policy prefers a waiting producer of the other class, wake
+	 * that one and return true.
+	 */
+	private boolean mustYield(TaskClass taskClass) {
+		Thread competitor = waitingProducers(other(taskClass)).peek();
+		if(null == competitor || m_dispatchPolicy.peek() == taskClass)
+			return false;
+		LockSupport.unpark(competitor);
+		return true;
+	}
+
+	/**
+	 * The class to serve next given which classes have work; asks the policy only when both have. This decides
+	 * nothing yet: whoever then dispatches a task while both classes were waiting commits it to the policy.
+	 */
+	@Nullable
+	private TaskClass chooseClass(boolean fresh, boolean retry) {
+		if(fresh && retry)
+			return m_dispatchPolicy.peek();
+		if(retry)
+			return TaskClass.RETRY;
+		return fresh ? TaskClass.FRESH : null;
+	}
+
+	static private TaskClass other(TaskClass taskClass) {
+		return taskClass == TaskClass.RETRY ? TaskClass.FRESH : TaskClass.RETRY;
+	}
+
+	private AtomicInteger queuedCount(TaskClass taskClass) {
+		return taskClass == TaskClass.RETRY ? m_queuedRetryCount : m_queuedFreshCount;
+	}
+
+	/**
+	 * Called when an executor's initialize failed. During start that fails the start; an executor added later
+	 * by an elastic runner is just dropped.
+	 */
+	void startFailed(AbstractTaskExecutor<T, R> executor, Exception x) {
+		if(m_started) {
+			System.err.println("Failed to initialize an added executor: " + x);
+			x.printStackTrace();
+			m_startingCount.decrementAndGet();
+			m_executorCount.decrementAndGet();
+			m_allThreadList.remove(executor);
+			return;
+		}
+		synchronized(this) {
+			m_failed = x;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Called when an executor's initialize completed.
+	 */
+	void executorStarted(AbstractTaskExecutor<T, R> executor) {
+		m_startingCount.decrementAndGet();
 	}
 
 	public void waitTillFinished() throws Exception {
@@ -135,13 +693,13 @@ final public class BulkTaskRunner<T> implements AutoCloseable {
 				if(m_finished) {
 					return; //it is closed already
 				}
-				if(m_freeThreadList.size() == m_allThreadList.size()) {
+				if(m_pendingCount.get() == 0) {
 					m_finished = true;
 					System.out.println("All tasks finished");
 					return;
 				}else {
 					try {
-						wait(60_000);
+						wait();							// taskDone notifies when the last pending task is done
 					} catch(Exception x) {
 						error = x;
 						break;
@@ -160,71 +718,403 @@ final public class BulkTaskRunner<T> implements AutoCloseable {
 		}
 	}
 
+	/**
+	 * Tell a driver waiting in awaitWorkOrQuiescence that there is new work for it, for instance rework
+	 * that a completion handler queued outside of the runner.
+	 */
+	public void signalWork() {
+		synchronized(this) {
+			m_workSignalled = true;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Wait until either signalWork was called since the previous call, or the runner is quiescent: all tasks
+	 * and their completion handling are done, so no follow-up work can appear anymore. Returns false if
+	 * neither happened within the timeout. On true the caller should look for work: quiescence is only final
+	 * when the caller has none left either.
+	 */
+	public boolean awaitWorkOrQuiescence(Duration timeout) throws InterruptedException {
+		long deadline = System.nanoTime() + timeout.toNanos();
+		synchronized(this) {
+			for(;;) {
+				if(m_workSignalled) {
+					m_workSignalled = false;
+					return true;
+				}
+				if(m_pendingCount.get() == 0) {
+					return true;
+				}
+				long left = deadline - System.nanoTime();
+				if(left <= 0) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(this, left);
+			}
+		}
+	}
+
 	@Override
 	public void close() throws Exception {
 		System.out.println("Closing bulk task runner");
-		List<AbstractTaskExecutor<T>> all;
+		List<AbstractTaskExecutor<T, R>> all;
+		DelayedTaskScheduler<T, R> scheduler;
 		synchronized(this) {
 			m_finished = true;
 			all = new ArrayList<>(m_allThreadList);
+			scheduler = m_scheduler;
+			m_scheduler = null;
+		}
+		if(null != scheduler) {
+			for(DelayedTaskScheduler.DelayedTask<T, R> task : scheduler.stop()) {
+				taskCompleted(task.toEntry(), null, new CancellationException("Runner closed before the delayed task was due"));
+			}
+		}
+		for(Thread waiter : m_waitingFreshProducers) {
+			LockSupport.unpark(waiter);
+		}
+		for(Thread waiter : m_waitingRetryProducers) {
+			LockSupport.unpark(waiter);
 		}
 
-		for(AbstractTaskExecutor<T> executor : all) {
+		for(AbstractTaskExecutor<T, R> executor : all) {
 			executor.setFinished();
 		}
-		for(AbstractTaskExecutor<T> executor : all) {
-			executor.join();
+		for(AbstractTaskExecutor<T, R> executor : all) {
+			executor.getThread().join();
 		}
 
 		synchronized(this) {
 			m_allThreadList.clear();
-			m_freeThreadList.clear();
+			m_freeStack.clear();
+			m_freeCount.set(0);
+			m_executorCount.set(0);
+			ObjectName mbeanName = m_mbeanName;
+			m_mbeanName = null;
+			if(null != mbeanName) {
+				try {
+					ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+				} catch(JMException x) {
+					x.printStackTrace();
+				}
+			}
 		}
 	}
 
-	void taskFinished(AbstractTaskExecutor<T> executor) {
-		Consumer<? super AbstractTaskExecutor<T>> onTaskCompleted = m_onTaskCompleted;
+	/**
+	 * Called by an executor after executeOnce returned normally, with the time it took.
+	 */
+	void taskExecuted(TaskEntry<T, R> task, long nanos) {
+		AdaptiveBatchSizer batchSizer = m_batchSizer;
+		ToIntFunction<? super T> batchSizeOf = m_batchSizeOf;
+		if(null != batchSizer && null != batchSizeOf) {
+			batchSizer.record(batchSizeOf.applyAsInt(task.getTask()), nanos);
+		}
+	}
+
+	/**
+	 * Stop at once: no more tasks are dispatched, executors are interrupted, and delayed tasks are dropped. Waits at
+	 * most timeout for the executors to stop. A running task that ended with an error after the interrupt, or is
+	 * still running after the timeout, is reported as in flight; one that returned its result normally is not, as
+	 * its future completes as usual. Tasks that never started have their futures cancelled. Call close afterwards
+	 * as usual.
+	 *
+	 * <p>Tasks added by producers concurrently with the abort either fail with an exception, are in the report, or,
+	 * when they were handed over after the abort collected its report, have their futures cancelled.</p>
+	 */
+	public AbortReport<T> abort(Duration timeout) throws InterruptedException {
+		System.out.println("Aborting bulk task runner");
+		List<AbstractTaskExecutor<T, R>> all;
+		DelayedTaskScheduler<T, R> scheduler;
+		synchronized(this) {
+			m_aborted = true;
+			m_finished = true;
+			all = new ArrayList<>(m_allThreadList);
+			scheduler = m_scheduler;
+			m_scheduler = null;
+		}
+		List<TaskEntry<T, R>> unstarted = new ArrayList<>();
+		if(null != scheduler) {
+			for(DelayedTaskScheduler.DelayedTask<T, R> task : scheduler.stop()) {
+				unstarted.add(task.toEntry());
+			}
+		}
+		for(Thread waiter : m_waitingFreshProducers) {
+			LockSupport.unpark(waiter);
+		}
+		for(Thread waiter : m_waitingRetryProducers) {
+			LockSupport.unpark(waiter);
+		}
+
+		//-- Claim the idle executors, so that producers can no longer hand them a task once their threads stopped
+		while(null != popFreeExecutor()) {
+			//-- Claimed; its thread stops on the abort below
+		}
+		for(AbstractTaskExecutor<T, R> executor : all) {
+			executor.abort();
+		}
+
+		//-- Wait for the executors to stop; the ones that don't keep running their task
+		List<TaskEntry<T, R>> inFlight = new ArrayList<>();
+		long deadline = System.nanoTime() + timeout.toNanos();
+		for(AbstractTaskExecutor<T, R> executor : all) {
+			Thread thread = executor.getThread();
+			TimeUnit.NANOSECONDS.timedJoin(thread, Math.max(1, deadline - System.nanoTime()));
+			TaskEntry<T, R> running = executor.getCurrentTask();
+			if(thread.isAlive() && null != running) {
+				System.err.println("Executor " + thread.getName() + " did not stop in time");
+				inFlight.add(running);
+			}
+		}
+
+		//-- Everything that is still queued or handed over never started
+		for(AbstractTaskExecutor<T, R> executor : all) {
+			executor.drainUnstarted(unstarted);
+		}
+		m_queuedCount.set(0);
+		m_queuedFreshCount.set(0);
+		m_queuedRetryCount.set(0);
+		TaskEntry<T, R> entry;
+		while(null != (entry = m_abortedUnstarted.poll())) {
+			unstarted.add(entry);
+		}
+		while(null != (entry = m_abortedInFlight.poll())) {
+			if(!inFlight.contains(entry)) {				// A late executor may have finished after all
+				inFlight.add(entry);
+			}
+		}
+
+		List<T> unstartedTasks = new ArrayList<>(unstarted.size());
+		CancellationException cancelled = new CancellationException("The runner was aborted before the task started");
+		for(TaskEntry<T, R> unstartedEntry : unstarted) {
+			unstartedTasks.add(unstartedEntry.getTask());
+			taskCompleted(unstartedEntry, null, cancelled);
+		}
+		List<T> inFlightTasks = new ArrayList<>(inFlight.size());
+		for(TaskEntry<T, R> inFlightEntry : inFlight) {
+			inFlightTasks.add(inFlightEntry.getTask());
+		}
+		AbortReport<T> report = new AbortReport<>(unstartedTasks, inFlightTasks);
+		System.out.println("Aborted with " + report);
+		return report;
+	}
+
+	public AbortReport<T> abort() throws InterruptedException {
+		return abort(Duration.ofSeconds(30));
+	}
+
+	/**
+	 * Called by an executor that took a task just as the runner was aborted.
+	 */
+	void taskAborted(TaskEntry<T, R> task) {
+		m_abortedUnstarted.add(task);
+	}
+
+	/**
+	 * Called by an executor whose running task ended with an error after an abort; its completion follows as usual.
+	 */
+	void taskInterrupted(TaskEntry<T, R> task) {
+		m_abortedInFlight.add(task);
+	}
+
+	void taskFinished(AbstractTaskExecutor<T, R> executor) {
+		Consumer<? super AbstractTaskExecutor<T, R>> onTaskCompleted = m_onTaskCompleted;
 		if(null != onTaskCompleted) {
 			onTaskCompleted.accept(executor);
 		}
 	}
 
-	void taskFailed(AbstractTaskExecutor<T> executor, Throwable ex) {
-		BiConsumer<? super AbstractTaskExecutor<T>, Throwable> onTaskFailed = m_onTaskFailed;
+	void taskFailed(AbstractTaskExecutor<T, R> executor, Throwable ex) {
+		BiConsumer<? super AbstractTaskExecutor<T, R>, Throwable> onTaskFailed = m_onTaskFailed;
 		if(null != onTaskFailed) {
 			onTaskFailed.accept(executor, ex);
 		}
 	}
 
-	public int getNumberOfRunningExecutors() {
-		synchronized(this) {
-			return m_allThreadList.size() - m_freeThreadList.size();
+	/**
+	 * Called by an executor after a task and its callbacks are done: completes the task's future, if any, and
+	 * marks the task as no longer pending once that is done too.
+	 */
+	void taskCompleted(TaskEntry<T, R> task, @Nullable R result, @Nullable Throwable error) {
+		CompletableFuture<R> future = task.getFuture();
+		if(null == future) {
+			taskDone();
+			return;
+		}
+		Runnable completion = () -> {
+			try {
+				if(null == error)
+					future.complete(result);
+				else
+					future.completeExceptionally(error);
+			} finally {
+				taskDone();
+			}
+		};
+		try {
+			m_completionExecutor.execute(completion);
+		} catch(RejectedExecutionException x) {
+			completion.run();
+		}
+	}
+
+	private void taskDone() {
+		if(m_pendingCount.decrementAndGet() == 0) {
+			synchronized(this) {
+				notifyAll();
+			}
 		}
 	}
 
 	/**
-	 * Called when a task is free.
+	 * In queued mode: take the next task from the executor's own queue, or steal one from another executor. When
+	 * both classes are queued the policy picks the class to look for first.
 	 */
-	synchronized void taskFree(AbstractTaskExecutor<T> executor) {
-		if(!m_freeThreadList.contains(executor)) {
-			m_freeThreadList.add(executor);
-			notifyAll();
+	@Nullable
+	TaskEntry<T, R> takeQueuedTask(AbstractTaskExecutor<T, R> executor) {
+		if(m_executorQueueCapacity <= 0)
+			return null;
+		boolean fresh = m_queuedFreshCount.get() > 0;
+		boolean retry = m_queuedRetryCount.get() > 0;
+		TaskClass taskClass = chooseClass(fresh, retry);
+		if(null == taskClass)
+			return null;
+		TaskEntry<T, R> task = takeQueuedTask(executor, taskClass);
+		if(null == task) {
+			task = takeQueuedTask(executor, other(taskClass));
+		}
+		if(null != task) {
+			if(fresh && retry)
+				m_dispatchPolicy.commit(task.getTaskClass());
+			queuedCount(task.getTaskClass()).decrementAndGet();
+			m_queuedCount.decrementAndGet();
+			signalWaitingProducer();
+			if(m_growQueueWaitNanos > 0 && System.nanoTime() - task.getAddedAt() > m_growQueueWaitNanos) {
+				tryGrow();
+			}
+		}
+		return task;
+	}
+
+	@Nullable
+	private TaskEntry<T, R> takeQueuedTask(AbstractTaskExecutor<T, R> executor, TaskClass taskClass) {
+		TaskEntry<T, R> task = executor.pollLocal(taskClass);
+		if(null == task) {
+			Object[] all = m_allThreadList.toArray();
+			int start = ThreadLocalRandom.current().nextInt(Math.max(1, all.length));
+			for(int i = 0; i < all.length && null == task; i++) {
+				@SuppressWarnings("unchecked")
+				AbstractTaskExecutor<T, R> victim = (AbstractTaskExecutor<T, R>) all[(start + i) % all.length];
+				if(victim != executor) {
+					task = victim.stealLocal(taskClass);
+				}
+			}
+		}
+		return task;
+	}
+
+	public int getNumberOfExecutors() {
+		return m_allThreadList.size();
+	}
+
+	/**
+	 * The metrics of all executors, including the ones that stopped, merged.
+	 */
+	ExecutorMetrics getTotalMetrics() {
+		ExecutorMetrics total = new ExecutorMetrics();
+		m_stoppedMetrics.addTo(total);
+		for(AbstractTaskExecutor<T, R> executor : m_allThreadList) {
+			executor.getMetrics().addTo(total);
+		}
+		return total;
+	}
+
+	List<ExecutorStats> getExecutorStats() {
+		List<ExecutorStats> list = new ArrayList<>();
+		for(AbstractTaskExecutor<T, R> executor : m_allThreadList) {
+			list.add(new ExecutorStats(executor.getThread().getName(), executor.getMetrics()));
+		}
+		return list;
+	}
+
+	public int getNumberOfRunningExecutors() {
+		return Math.max(0, m_allThreadList.size() - m_freeCount.get());
+	}
+
+	/**
+	 * The number of tasks that were added but are not yet completely handled, including the ones still queued.
+	 * When this is zero no more completion callbacks (and so no more rework) can come.
+	 */
+	public int getNumberOfPendingTasks() {
+		return m_pendingCount.get();
+	}
+
+	public int getNumberOfQueuedTasks() {
+		return m_queuedCount.get();
+	}
+
+	/**
+	 * Called when a task is free. The count is raised before the push, so an executor is never
+	 * poppable while still being counted as running.
+	 */
+	void taskFree(AbstractTaskExecutor<T, R> executor) {
+		int free = m_freeCount.incrementAndGet();
+		executor.markFree();
+		m_freeStack.addFirst(executor);
+		signalWaitingProducer();
+
+		//-- Only the start and finish handshakes wait on the monitor, so only take it when everyone is idle.
+		if(free >= m_allThreadList.size()) {
+			synchronized(this) {
+				notifyAll();
+			}
 		}
 	}
 
 	public void reportStatus() {
-		synchronized(this) {
-			System.out.println("---- executor status");
-			System.out.println(m_allThreadList.size() + " total threads");
-			System.out.println(m_freeThreadList.size() + " free threads");
+		System.out.println("---- executor status");
+		System.out.println(m_allThreadList.size() + " total threads" + (m_maxThreads > 0 ? " (elastic, " + m_minThreads + ".." + m_maxThreads + ")" : ""));
+		System.out.println(m_freeCount.get() + " free threads");
+		System.out.println("tasks: " + getTotalMetrics().format());
+		if(m_executorQueueCapacity > 0) {
+			System.out.println(m_queuedCount.get() + " queued tasks (" + m_queuedRetryCount.get() + " retries)");
+		}
+		DelayedTaskScheduler<T, R> scheduler = m_scheduler;
+		if(null != scheduler) {
+			System.out.println(scheduler.size() + " delayed tasks not yet due");
+		}
+		AdaptiveBatchSizer batchSizer = m_batchSizer;
+		if(null != batchSizer) {
+			System.out.println(batchSizer.getStatus());
+		}
+	}
+
+	/**
+	 * Called when a free executor found queued work after registering as free. If a producer claimed it in the
+	 * meantime that producer will hand it a task, which the executor picks up after the one it found. Otherwise
+	 * its entry on the free stack is left as a stale one.
+	 */
+	void taskUnfree(AbstractTaskExecutor<T, R> executor) {
+		if(executor.claim()) {
+			m_freeCount.decrementAndGet();
 		}
 	}
 
 	/**
 	 * Called when an executor THREAD has stopped.
 	 */
-	synchronized void taskTerminated(AbstractTaskExecutor<T> executor) {
-		m_allThreadList.remove(executor);
-		m_freeThreadList.remove(executor);
+	void taskTerminated(AbstractTaskExecutor<T, R> executor) {
+		boolean removed = m_allThreadList.remove(executor);
+		if(removed && !m_finished && !executor.isRetired()) {
+			m_executorCount.decrementAndGet();		// Died, not retired (that was counted already)
+		}
+		if(removed) {
+			executor.getMetrics().addTo(m_stoppedMetrics);
+		}
+		if(executor.claim()) {
+			m_freeCount.decrementAndGet();
+		}
+		m_freeStack.remove(executor);
 	}
 }
@@ -0,0 +1,39 @@
+package com.htec.examples.parallelrunner.bulk;
+
+import java.util.List;
+
+/**
+ * The metrics of a {@link BulkTaskRunner} as a platform MXBean, see {@link BulkTaskRunner#registerMBean(String)}.
+ * Dispatch wait is the time from adding a task until an executor started it; execution is the time spent in
+ * executeOnce. Durations are in milliseconds, percentiles are exact to within 1/8 of their value.
+ */
+public interface BulkTaskRunnerMXBean {
+	int getExecutorCount();
+
+	int getFreeExecutorCount();
+
+	int getPendingTaskCount();
+
+	int getQueuedTaskCount();
+
+	long getCompletedTaskCount();
+
+	long getFailedTaskCount();
+
+	double getDispatchWaitP50Millis();
+
+	double getDispatchWaitP99Millis();
+
+	double getDispatchWaitMaxMillis();
+
+	double getExecutionP50Millis();
+
+	double getExecutionP99Millis();
+
+	double getExecutionMaxMillis();
+
+	double getExecutionMeanMillis();
+
+	/** Per executor that is still running; executors that stopped only count in the totals. */
+	List<ExecutorStats> getExecutorStats();
+}
@@ -0,0 +1,88 @@
+package com.htec.examples.parallelrunner.bulk;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.util.List;
+
+/**
+ * The MXBean of a runner. Every attribute read merges the executors' metrics again, which costs a few
+ * microseconds per executor; nothing is computed on the task path.
+ */
+@NonNullByDefault
+final class BulkTaskRunnerMetrics implements BulkTaskRunnerMXBean {
+	private final BulkTaskRunner<?, ?> m_runner;
+
+	BulkTaskRunnerMetrics(BulkTaskRunner<?, ?> runner) {
+		m_runner = runner;
+	}
+
+	@Override
+	public int getExecutorCount() {
+		return m_runner.getNumberOfExecutors();
+	}
+
+	@Override
+	public int getFreeExecutorCount() {
+		return m_runner.getNumberOfExecutors() - m_runner.getNumberOfRunningExecutors();
+	}
+
+	@Override
+	public int getPendingTaskCount() {
+		return m_runner.getNumberOfPendingTasks();
+	}
+
+	@Override
+	public int getQueuedTaskCount() {
+		return m_runner.getNumberOfQueuedTasks();
+	}
+
+	@Override
+	public long getCompletedTaskCount() {
+		return m_runner.getTotalMetrics().getCompletedCount();
+	}
+
+	@Override
+	public long getFailedTaskCount() {
+		return m_runner.getTotalMetrics().getFailedCount();
+	}
+
+	@Override
+	public double getDispatchWaitP50Millis() {
+		return m_runner.getTotalMetrics().getDispatchWait().getPercentileMillis(0.5);
+	}
+
+	@Override
+	public double getDispatchWaitP99Millis() {
+		return m_runner.getTotalMetrics().getDispatchWait().getPercentileMillis(0.99);
+	}
+
+	@Override
+	public double getDispatchWaitMaxMillis() {
+		return m_runner.getTotalMetrics().getDispatchWait().getMaxMillis();
+	}
+
+	@Override
+	public double getExecutionP50Millis() {
+		return m_runner.getTotalMetrics().getExecution().getPercentileMillis(0.5);
+	}
+
+	@Override
+	public double getExecutionP99Millis() {
+		return m_runner.getTotalMetrics().getExecution().getPercentileMillis(0.99);
+	}
+
+	@Override
+	public double getExecutionMaxMillis() {
+		return m_runner.getTotalMetrics().getExecution().getMaxMillis();
+	}
+
+	@Override
+	public double getExecutionMeanMillis() {
+		return m_runner.getTotalMetrics().getExecution().getMeanMillis();
+	}
+
+	@Override
+	public List<ExecutorStats> getExecutorStats() {
+		return m_runner.getExecutorStats();
+	}
+}
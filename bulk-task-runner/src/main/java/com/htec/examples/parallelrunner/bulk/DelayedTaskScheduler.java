@@ -0,0 +1,115 @@
+package com.htec.examples.parallelrunner.bulk;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds tasks submitted with a delay until they are due, then dispatches them to the runner from its own
+ * thread. Executors therefore never sleep waiting for a retry to become due; they only get work that is
+ * ready to run. The dispatching thread blocks, not the submitter, when the runner has no room.
+ */
+@NonNullByDefault
+final class DelayedTaskScheduler<T, R> implements Runnable {
+	private final BulkTaskRunner<T, R> m_runner;
+
+	private final DelayQueue<DelayedTask<T, R>> m_queue = new DelayQueue<>();
+
+	/** Keeps tasks due at the same moment in submission order. */
+	private final AtomicLong m_sequence = new AtomicLong();
+
+	private final Thread m_thread;
+
+	private volatile boolean m_stopped;
+
+	@NonNullByDefault
+	static final class DelayedTask<T, R> implements Delayed {
+		private final T m_task;
+
+		@Nullable
+		private final CompletableFuture<R> m_future;
+
+		/** System.nanoTime() when the task is due. */
+		private final long m_dueAt;
+
+		private final TaskClass m_taskClass;
+
+		private final long m_sequence;
+
+		DelayedTask(T task, @Nullable CompletableFuture<R> future, TaskClass taskClass, long dueAt, long sequence) {
+			m_task = task;
+			m_future = future;
+			m_taskClass = taskClass;
+			m_dueAt = dueAt;
+			m_sequence = sequence;
+		}
+
+		TaskEntry<T, R> toEntry() {
+			return new TaskEntry<>(m_task, m_future, m_taskClass);
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(m_dueAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			DelayedTask<?, ?> other = (DelayedTask<?, ?>) o;
+			int res = Long.compare(m_dueAt - other.m_dueAt, 0);
+			if(res != 0)
+				return res;
+			return Long.compare(m_sequence, other.m_sequence);
+		}
+	}
+
+	DelayedTaskScheduler(BulkTaskRunner<T, R> runner) {
+		m_runner = runner;
+		m_thread = new Thread(this, "bulk-delayed-task-scheduler");
+		m_thread.setDaemon(true);
+	}
+
+	void start() {
+		m_thread.start();
+	}
+
+	void schedule(T task, @Nullable CompletableFuture<R> future, TaskClass taskClass, long delayNanos) {
+		m_queue.add(new DelayedTask<>(task, future, taskClass, System.nanoTime() + delayNanos, m_sequence.getAndIncrement()));
+	}
+
+	int size() {
+		return m_queue.size();
+	}
+
+	@Override
+	public void run() {
+		while(!m_stopped) {
+			DelayedTask<T, R> due;
+			try {
+				due = m_queue.take();
+			} catch(InterruptedException x) {
+				continue;								// Stopping
+			}
+			m_runner.dispatchDelayed(due.toEntry());
+		}
+	}
+
+	/**
+	 * Stop dispatching, and return the tasks that were not yet due.
+	 */
+	List<DelayedTask<T, R>> stop() throws InterruptedException {
+		m_stopped = true;
+		m_thread.interrupt();
+		m_thread.join();
+		List<DelayedTask<T, R>> remaining = new ArrayList<>(m_queue);		// drainTo would only take the expired ones
+		m_queue.clear();
+		return remaining;
+	}
+}
@@ -0,0 +1,68 @@
+package com.htec.examples.parallelrunner.bulk;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which class of task goes first when both fresh tasks and retries are waiting: producers blocked
+ * in addTask, or tasks in the executor queues. It is only asked when there is a choice, from any thread.
+ *
+ * <p>Asking with peek has no effect, as the runner also asks for decisions that dispatch nothing, like which
+ * producer to wake. Only when a task is handed out while both classes were waiting does the runner call commit,
+ * so that a policy that takes turns counts dispatches, not questions.</p>
+ */
+@NonNullByDefault
+public interface DispatchPolicy {
+	/**
+	 * The class that should go next.
+	 */
+	TaskClass peek();
+
+	/**
+	 * A task of the class was handed out while both classes were waiting.
+	 */
+	default void commit(TaskClass taskClass) {
+	}
+
+	/**
+	 * Retries always go before fresh tasks, so that failed work is redone while what it needs is still warm.
+	 */
+	static DispatchPolicy retryFirst() {
+		return () -> TaskClass.RETRY;
+	}
+
+	static DispatchPolicy freshFirst() {
+		return () -> TaskClass.FRESH;
+	}
+
+	/**
+	 * Out of every retryWeight + freshWeight dispatches while both classes wait, retryWeight go to retries. Neither
+	 * class can starve the other. The turn only moves on when a task of the class it asked for was dispatched.
+	 */
+	static DispatchPolicy weightedFair(int retryWeight, int freshWeight) {
+		if(retryWeight < 1 || freshWeight < 1)
+			throw new IllegalArgumentException("Weights must be at least 1");
+		int cycle = retryWeight + freshWeight;
+		AtomicLong turn = new AtomicLong();
+		return new DispatchPolicy() {
+			@Override
+			public TaskClass peek() {
+				return classOf(turn.get());
+			}
+
+			@Override
+			public void commit(TaskClass taskClass) {
+				for(;;) {
+					long current = turn.get();
+					if(classOf(current) != taskClass || turn.compareAndSet(current, current + 1))
+						return;
+				}
+			}
+
+			private TaskClass classOf(long at) {
+				return at % cycle < retryWeight ? TaskClass.RETRY : TaskClass.FRESH;
+			}
+		};
+	}
+}
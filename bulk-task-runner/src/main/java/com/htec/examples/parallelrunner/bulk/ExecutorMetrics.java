@@ -0,0 +1,62 @@
+package com.htec.examples.parallelrunner.bulk;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What one executor measured: how long its tasks waited before it started them, how long executeOnce took, and
+ * how many tasks failed. Only the executor's own thread records, so the counters are not contended.
+ */
+@NonNullByDefault
+final class ExecutorMetrics {
+	private final LatencyHistogram m_dispatchWait = new LatencyHistogram();
+
+	private final LatencyHistogram m_execution = new LatencyHistogram();
+
+	private final AtomicLong m_failures = new AtomicLong();
+
+	/**
+	 * A task started after waiting since it was added (or, when delayed, since it became due).
+	 */
+	void taskStarted(long waitNanos) {
+		m_dispatchWait.recordNanos(waitNanos);
+	}
+
+	void taskExecuted(long nanos, boolean failed) {
+		m_execution.recordNanos(nanos);
+		if(failed)
+			m_failures.incrementAndGet();
+	}
+
+	void addTo(ExecutorMetrics target) {
+		m_dispatchWait.addTo(target.m_dispatchWait);
+		m_execution.addTo(target.m_execution);
+		target.m_failures.addAndGet(m_failures.get());
+	}
+
+	LatencyHistogram getDispatchWait() {
+		return m_dispatchWait;
+	}
+
+	LatencyHistogram getExecution() {
+		return m_execution;
+	}
+
+	long getFailedCount() {
+		return m_failures.get();
+	}
+
+	long getCompletedCount() {
+		return m_execution.getCount() - m_failures.get();
+	}
+
+	/**
+	 * One line with the numbers, for reportStatus.
+	 */
+	String format() {
+		return getCompletedCount() + " completed, " + getFailedCount() + " failed; wait p50 " + m_dispatchWait.getPercentileMillis(0.5)
+			+ "ms p99 " + m_dispatchWait.getPercentileMillis(0.99) + "ms; execution p50 " + m_execution.getPercentileMillis(0.5)
+			+ "ms p99 " + m_execution.getPercentileMillis(0.99) + "ms max " + m_execution.getMaxMillis() + "ms";
+	}
+}
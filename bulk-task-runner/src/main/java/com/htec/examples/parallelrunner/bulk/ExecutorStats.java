@@ -0,0 +1,70 @@
+package com.htec.examples.parallelrunner.bulk;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * A snapshot of the metrics of one executor, as shown through {@link BulkTaskRunnerMXBean#getExecutorStats()}.
+ * Durations are in milliseconds.
+ */
+@NonNullByDefault
+final public class ExecutorStats {
+	private final String m_name;
+
+	private final long m_completedTaskCount;
+
+	private final long m_failedTaskCount;
+
+	private final double m_dispatchWaitP50Millis;
+
+	private final double m_dispatchWaitP99Millis;
+
+	private final double m_executionP50Millis;
+
+	private final double m_executionP99Millis;
+
+	private final double m_executionMaxMillis;
+
+	ExecutorStats(String name, ExecutorMetrics metrics) {
+		m_name = name;
+		m_completedTaskCount = metrics.getCompletedCount();
+		m_failedTaskCount = metrics.getFailedCount();
+		m_dispatchWaitP50Millis = metrics.getDispatchWait().getPercentileMillis(0.5);
+		m_dispatchWaitP99Millis = metrics.getDispatchWait().getPercentileMillis(0.99);
+		m_executionP50Millis = metrics.getExecution().getPercentileMillis(0.5);
+		m_executionP99Millis = metrics.getExecution().getPercentileMillis(0.99);
+		m_executionMaxMillis = metrics.getExecution().getMaxMillis();
+	}
+
+	/** The name of the executor's thread. */
+	public String getName() {
+		return m_name;
+	}
+
+	public long getCompletedTaskCount() {
+		return m_completedTaskCount;
+	}
+
+	public long getFailedTaskCount() {
+		return m_failedTaskCount;
+	}
+
+	public double getDispatchWaitP50Millis() {
+		return m_dispatchWaitP50Millis;
+	}
+
+	public double getDispatchWaitP99Millis() {
+		return m_dispatchWaitP99Millis;
+	}
+
+	public double getExecutionP50Millis() {
+		return m_executionP50Millis;
+	}
+
+	public double getExecutionP99Millis() {
+		return m_executionP99Millis;
+	}
+
+	public double getExecutionMaxMillis() {
+		return m_executionMaxMillis;
+	}
+}
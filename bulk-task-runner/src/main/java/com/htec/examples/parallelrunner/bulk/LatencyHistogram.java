@@ -0,0 +1,109 @@
+package com.htec.examples.parallelrunner.bulk;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in microseconds. Buckets are log-linear: every power of two is split into
+ * 8 buckets, so a percentile is exact to within 1/8 of its value. Durations over about 9 hours land in the last
+ * bucket. Recording is a few atomic increments; each executor records in its own histograms, so these are not
+ * contended, and the runner merges them when they are read.
+ */
+@NonNullByDefault
+final class LatencyHistogram {
+	static private final int SUB_BITS = 3;
+
+	static private final int SUB_COUNT = 1 << SUB_BITS;
+
+	/** The highest power of two that gets its own buckets: 2^35 us. */
+	static private final int MAX_EXPONENT = 35;
+
+	/** The exact buckets below SUB_COUNT, the log-linear ones, and one for everything longer. */
+	static private final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT + 1;
+
+	private final AtomicLongArray m_counts = new AtomicLongArray(BUCKET_COUNT);
+
+	private final AtomicLong m_count = new AtomicLong();
+
+	private final AtomicLong m_totalMicros = new AtomicLong();
+
+	private final AtomicLong m_maxMicros = new AtomicLong();
+
+	void recordNanos(long nanos) {
+		long micros = Math.max(0L, nanos / 1000);
+		m_counts.incrementAndGet(indexOf(micros));
+		m_count.incrementAndGet();
+		m_totalMicros.addAndGet(micros);
+		if(micros > m_maxMicros.get())
+			m_maxMicros.accumulateAndGet(micros, Math::max);
+	}
+
+	/**
+	 * Add all counts of this histogram to the target.
+	 */
+	void addTo(LatencyHistogram target) {
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			long count = m_counts.get(i);
+			if(count != 0)
+				target.m_counts.addAndGet(i, count);
+		}
+		target.m_count.addAndGet(m_count.get());
+		target.m_totalMicros.addAndGet(m_totalMicros.get());
+		target.m_maxMicros.accumulateAndGet(m_maxMicros.get(), Math::max);
+	}
+
+	long getCount() {
+		return m_count.get();
+	}
+
+	double getMeanMillis() {
+		long count = m_count.get();
+		return count == 0 ? 0.0d : m_totalMicros.get() / 1000.0d / count;
+	}
+
+	double getMaxMillis() {
+		return m_maxMicros.get() / 1000.0d;
+	}
+
+	/**
+	 * The duration below which the given fraction (0..1) of the recorded durations fall, as the upper bound of its bucket.
+	 */
+	double getPercentileMillis(double fraction) {
+		long total = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			total += m_counts.get(i);
+		}
+		if(total == 0)
+			return 0.0d;
+		long rank = Math.max(1L, (long) Math.ceil(fraction * total));
+		long seen = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			seen += m_counts.get(i);
+			if(seen >= rank)
+				return Math.min(upperBoundOf(i), m_maxMicros.get()) / 1000.0d;
+		}
+		return getMaxMillis();
+	}
+
+	static private int indexOf(long micros) {
+		if(micros < SUB_COUNT)
+			return (int) micros;
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if(exponent > MAX_EXPONENT)
+			return BUCKET_COUNT - 1;
+		int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+		return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+	}
+
+	static private long upperBoundOf(int index) {
+		if(index < SUB_COUNT)
+			return index;
+		if(index == BUCKET_COUNT - 1)
+			return Long.MAX_VALUE;
+		int exponent = index / SUB_COUNT + SUB_BITS - 1;
+		int sub = index % SUB_COUNT;
+		return ((long) (SUB_COUNT + sub + 1) << (exponent - SUB_BITS)) - 1;
+	}
+}
@@ -0,0 +1,50 @@
+package com.htec.examples.parallelrunner.bulk;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter for retrying work. Retry 1 waits about the initial delay, every next retry
+ * doubles that up to the max delay. The jitter takes a random part of up to jitter * delay off each delay, so that
+ * a burst of failures is not retried as a burst again.
+ */
+@NonNullByDefault
+final public class RetryBackoff {
+	private final long m_initialNanos;
+
+	private final long m_maxNanos;
+
+	private final double m_jitter;
+
+	/**
+	 * @param jitter the fraction (0..1) of each delay that is randomized.
+	 */
+	public RetryBackoff(Duration initialDelay, Duration maxDelay, double jitter) {
+		if(initialDelay.isNegative() || maxDelay.compareTo(initialDelay) < 0)
+			throw new IllegalArgumentException("Invalid delays " + initialDelay + ".." + maxDelay);
+		if(jitter < 0.0d || jitter > 1.0d)
+			throw new IllegalArgumentException("Jitter must be between 0 and 1");
+		m_initialNanos = initialDelay.toNanos();
+		m_maxNanos = maxDelay.toNanos();
+		m_jitter = jitter;
+	}
+
+	/**
+	 * The delay before the given retry; retry index 0 (the first attempt) is not delayed.
+	 */
+	public Duration delayFor(int retryIndex) {
+		if(retryIndex <= 0)
+			return Duration.ZERO;
+		long delay = m_initialNanos;
+		for(int i = 1; i < retryIndex && delay < m_maxNanos; i++) {
+			delay *= 2;
+		}
+		delay = Math.min(delay, m_maxNanos);
+		if(m_jitter > 0.0d) {
+			delay -= (long) (delay * m_jitter * ThreadLocalRandom.current().nextDouble());
+		}
+		return Duration.ofNanos(delay);
+	}
+}
@@ -0,0 +1,12 @@
+package com.htec.examples.parallelrunner.bulk;
+
+/**
+ * The class of a task, used by the {@link DispatchPolicy} to decide what runs first when executors are scarce.
+ */
+public enum TaskClass {
+	/** New work, e.g. the next chunk read from the input. */
+	FRESH,
+
+	/** Work that failed before and is tried again. */
+	RETRY
+}
@@ -0,0 +1,47 @@
+package com.htec.examples.parallelrunner.bulk;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A task as it travels through the runner: the user's task plus the bookkeeping the runner needs for it.
+ */
+@NonNullByDefault
+final class TaskEntry<T, R> {
+	private final T m_task;
+
+	/** When the task was submitted (not just added): completed with the task's result. */
+	@Nullable
+	private final CompletableFuture<R> m_future;
+
+	private final TaskClass m_taskClass;
+
+	/** System.nanoTime() at the moment the task was added. */
+	private final long m_addedAt;
+
+	TaskEntry(T task, @Nullable CompletableFuture<R> future, TaskClass taskClass) {
+		m_task = task;
+		m_future = future;
+		m_taskClass = taskClass;
+		m_addedAt = System.nanoTime();
+	}
+
+	T getTask() {
+		return m_task;
+	}
+
+	@Nullable
+	CompletableFuture<R> getFuture() {
+		return m_future;
+	}
+
+	TaskClass getTaskClass() {
+		return m_taskClass;
+	}
+
+	long getAddedAt() {
+		return m_addedAt;
+	}
+}
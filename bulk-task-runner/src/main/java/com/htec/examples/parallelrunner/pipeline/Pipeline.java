@@ -0,0 +1,183 @@
+package com.htec.examples.parallelrunner.pipeline;
+
+import com.htec.util.WrappedException;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Runs work through a chain of stages, like read, transform, write. Each stage has its own threads and batch
+ * size: a transform stage can call a slow remote service for single records on many threads, while a write stage
+ * collects their output into large batches for a few database connections. Between stages sits a bounded queue
+ * of batches; when it is full the stage feeding it blocks, so a slow writer eventually blocks {@link #put(Object)}
+ * and with that the reader.
+ *
+ * <p>Build one with {@link #builder()}, then start it, put all input, and call finish to wait for the end.
+ * A stage that throws fails the whole pipeline: put and finish then throw that error.</p>
+ */
+@NonNullByDefault
+final public class Pipeline<I> implements AutoCloseable {
+	private final List<Stage<?, ?>> m_stages = new ArrayList<>();
+
+	/** Partial batches are handed over once their oldest item waited this long; 0 only hands them over at finish. */
+	private long m_lingerNanos;
+
+	private final AtomicReference<Throwable> m_failure = new AtomicReference<>();
+
+	@Nullable
+	private ScheduledExecutorService m_flusher;
+
+	private volatile boolean m_started;
+
+	Pipeline() {
+	}
+
+	static public <I> PipelineBuilder<I, I> builder() {
+		return new PipelineBuilder<>(new Pipeline<>());
+	}
+
+	void setLinger(Duration linger) {
+		m_lingerNanos = linger.toNanos();
+	}
+
+	/**
+	 * Used by the builder to define the next stage.
+	 */
+	<A, B> void addStage(String name, int threads, int batchSize, int queuedBatches, Supplier<? extends StageWorker<A, B>> workerFactory) {
+		Stage<A, B> stage = new Stage<>(this, name, threads, batchSize, queuedBatches, workerFactory);
+		if(m_started)
+			throw new IllegalStateException("The pipeline has been started already");
+		if(!m_stages.isEmpty()) {
+			@SuppressWarnings("unchecked")
+			Stage<?, A> previous = (Stage<?, A>) m_stages.get(m_stages.size() - 1);
+			previous.setNext(stage);
+		}
+		m_stages.add(stage);
+	}
+
+	/**
+	 * Start all stages, the last one first so that every stage has somewhere to send its output.
+	 */
+	public void start() throws Exception {
+		if(m_stages.isEmpty())
+			throw new IllegalStateException("A pipeline needs at least one stage");
+		try {
+			for(int i = m_stages.size() - 1; i >= 0; i--) {
+				m_stages.get(i).start();
+			}
+		} catch(Exception | Error x) {
+			close();
+			throw x;
+		}
+		if(m_lingerNanos > 0) {
+			ScheduledExecutorService flusher = m_flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "pipeline-flusher");
+				thread.setDaemon(true);
+				return thread;
+			});
+			long period = Math.max(1, m_lingerNanos / 2);
+			flusher.scheduleWithFixedDelay(this::flushLingering, period, period, TimeUnit.NANOSECONDS);
+		}
+		m_started = true;
+	}
+
+	/**
+	 * Feed one input to the first stage. Blocks while the pipeline is full.
+	 */
+	@SuppressWarnings("unchecked")
+	public void put(I item) {
+		if(!m_started)
+			throw new IllegalStateException("The pipeline has not been started");
+		checkFailure();
+		((Stage<I, ?>) m_stages.get(0)).add(item);
+	}
+
+	/**
+	 * Call after the last put: finishes the stages in order, each once the one before it can send no more, then
+	 * closes the pipeline. Throws the first error of any stage.
+	 */
+	public void finish() throws Exception {
+		stopFlusher(false);
+		try {
+			for(Stage<?, ?> stage : m_stages) {
+				checkFailure();
+				stage.finish();
+			}
+		} finally {
+			close();
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Stop all stages without waiting for the work in them.
+	 */
+	@Override
+	public void close() throws Exception {
+		stopFlusher(true);
+		m_started = false;
+		for(Stage<?, ?> stage : m_stages) {
+			stage.close();
+		}
+	}
+
+	public void reportStatus() {
+		for(Stage<?, ?> stage : m_stages) {
+			stage.reportStatus();
+		}
+	}
+
+	void stageFailed(Stage<?, ?> stage, Throwable x) {
+		if(m_failure.compareAndSet(null, new WrappedException("Pipeline stage " + stage.getName() + " failed", x))) {
+			System.err.println("Pipeline stage " + stage.getName() + " failed: " + x);
+		}
+	}
+
+	private void checkFailure() {
+		Throwable failure = m_failure.get();
+		if(null != failure)
+			throw WrappedException.wrap(failure);
+	}
+
+	/**
+	 * A stage that cannot take its partial batch fails the pipeline: those items would be lost otherwise.
+	 */
+	private void flushLingering() {
+		for(Stage<?, ?> stage : m_stages) {
+			try {
+				stage.flush(m_lingerNanos);
+			} catch(Exception | Error x) {
+				stageFailed(stage, x);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Stop flushing partial batches. Unless interrupting, a flush that is handing over a batch is waited for, as
+	 * long as no stage failed, so that finish never loses that batch; an interrupted flush puts its batch back.
+	 */
+	private void stopFlusher(boolean interrupt) throws InterruptedException {
+		ScheduledExecutorService flusher = m_flusher;
+		m_flusher = null;
+		if(null == flusher)
+			return;
+		if(!interrupt) {
+			flusher.shutdown();
+			while(!flusher.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+				if(null != m_failure.get())
+					break;
+			}
+		}
+		flusher.shutdownNow();
+		flusher.awaitTermination(1, TimeUnit.MINUTES);
+	}
+}
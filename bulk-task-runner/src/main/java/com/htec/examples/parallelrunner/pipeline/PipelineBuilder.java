@@ -0,0 +1,65 @@
+package com.htec.examples.parallelrunner.pipeline;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Defines the stages of a {@link Pipeline} in order. I is what the pipeline takes, O what the last stage defined
+ * so far produces and so what the next stage takes.
+ */
+@NonNullByDefault
+final public class PipelineBuilder<I, O> {
+	static private final Duration DEFAULT_LINGER = Duration.ofMillis(500);
+
+	private final Pipeline<I> m_pipeline;
+
+	private boolean m_hasStages;
+
+	PipelineBuilder(Pipeline<I> pipeline) {
+		m_pipeline = pipeline;
+		pipeline.setLinger(DEFAULT_LINGER);
+	}
+
+	/**
+	 * How long a partial batch may wait for more items before a stage runs it anyway, so that a trickle of input
+	 * still moves. Zero only runs partial batches at finish.
+	 */
+	public PipelineBuilder<I, O> linger(Duration linger) {
+		if(linger.isNegative())
+			throw new IllegalArgumentException("The linger time cannot be negative");
+		m_pipeline.setLinger(linger);
+		return this;
+	}
+
+	/**
+	 * Add a stage with a queue of one waiting batch per thread.
+	 */
+	public <N> PipelineBuilder<I, N> stage(String name, int threads, int batchSize, Supplier<? extends StageWorker<O, N>> workerFactory) {
+		return stage(name, threads, batchSize, threads, workerFactory);
+	}
+
+	/**
+	 * Add a stage that runs batches of batchSize items on its own threads, each with a worker from the factory.
+	 * At most queuedBatches full batches wait for a free thread; 0 hands each batch directly to a thread.
+	 */
+	public <N> PipelineBuilder<I, N> stage(String name, int threads, int batchSize, int queuedBatches, Supplier<? extends StageWorker<O, N>> workerFactory) {
+		if(threads < 1 || batchSize < 1 || queuedBatches < 0)
+			throw new IllegalArgumentException("Invalid stage " + name + ": " + threads + " threads, batch size " + batchSize + ", " + queuedBatches + " queued batches");
+		m_pipeline.<O, N> addStage(name, threads, batchSize, queuedBatches, workerFactory);
+		@SuppressWarnings("unchecked")
+		PipelineBuilder<I, N> next = (PipelineBuilder<I, N>) this;
+		next.m_hasStages = true;
+		return next;
+	}
+
+	/**
+	 * The pipeline, not yet started. The output of the last stage is dropped.
+	 */
+	public Pipeline<I> build() {
+		if(!m_hasStages)
+			throw new IllegalStateException("A pipeline needs at least one stage");
+		return m_pipeline;
+	}
+}
@@ -0,0 +1,143 @@
+package com.htec.examples.parallelrunner.pipeline;
+
+import com.htec.examples.parallelrunner.bulk.BulkTaskRunner;
+import com.htec.util.WrappedException;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * One stage of a pipeline: collects its inputs into batches and runs them on its own BulkTaskRunner. The runner's
+ * queue is the bounded queue in front of the stage; when it is full, adding a batch blocks.
+ */
+@NonNullByDefault
+final class Stage<I, O> {
+	private final Pipeline<?> m_pipeline;
+
+	private final String m_name;
+
+	private final int m_threads;
+
+	private final int m_batchSize;
+
+	private final int m_queuedBatches;
+
+	private final Supplier<? extends StageWorker<I, O>> m_workerFactory;
+
+	private final BulkTaskRunner<List<I>, Integer> m_runner = new BulkTaskRunner<>();
+
+	@Nullable
+	private Stage<O, ?> m_next;
+
+	/** The batch being collected, and when its first item came; guarded by this. */
+	private List<I> m_batch;
+
+	private long m_batchStartedAt;
+
+	Stage(Pipeline<?> pipeline, String name, int threads, int batchSize, int queuedBatches, Supplier<? extends StageWorker<I, O>> workerFactory) {
+		m_pipeline = pipeline;
+		m_name = name;
+		m_threads = threads;
+		m_batchSize = batchSize;
+		m_queuedBatches = queuedBatches;
+		m_workerFactory = workerFactory;
+		m_batch = new ArrayList<>(batchSize);
+	}
+
+	void setNext(Stage<O, ?> next) {
+		m_next = next;
+	}
+
+	String getName() {
+		return m_name;
+	}
+
+	StageWorker<I, O> createWorker() {
+		return m_workerFactory.get();
+	}
+
+	void start() throws Exception {
+		if(m_queuedBatches > 0) {
+			m_runner.setQueueCapacity((m_queuedBatches + m_threads - 1) / m_threads, m_queuedBatches);
+		}
+		m_runner.start(runner -> new StageExecutor<>(this, runner), m_threads, null, (executor, x) -> m_pipeline.stageFailed(this, x));
+	}
+
+	/**
+	 * Add an input; when that completes a batch, hand the batch to the stage's threads, blocking while the stage is full.
+	 */
+	void add(I item) {
+		List<I> full = null;
+		synchronized(this) {
+			if(m_batch.isEmpty()) {
+				m_batchStartedAt = System.nanoTime();
+			}
+			m_batch.add(item);
+			if(m_batch.size() >= m_batchSize) {
+				full = m_batch;
+				m_batch = new ArrayList<>(m_batchSize);
+			}
+		}
+		if(null != full) {
+			m_runner.addTask(full);
+		}
+	}
+
+	/**
+	 * Called by this stage's workers with their output.
+	 */
+	void emit(O item) {
+		Stage<O, ?> next = m_next;
+		if(null != next) {
+			next.add(item);
+		}
+	}
+
+	/**
+	 * Hand over the partial batch if its first item waits longer than maxWaitNanos already. When interrupted while
+	 * the stage is full the batch is put back, in front of what was added meanwhile, and the interrupt is kept.
+	 */
+	void flush(long maxWaitNanos) {
+		List<I> partial;
+		long startedAt;
+		synchronized(this) {
+			if(m_batch.isEmpty() || System.nanoTime() - m_batchStartedAt < maxWaitNanos)
+				return;
+			partial = m_batch;
+			startedAt = m_batchStartedAt;
+			m_batch = new ArrayList<>(m_batchSize);
+		}
+		try {
+			m_runner.addTask(partial);
+		} catch(RuntimeException x) {
+			if(!(WrappedException.unwrap(x) instanceof InterruptedException))
+				throw x;
+			synchronized(this) {
+				partial.addAll(m_batch);
+				m_batch = partial;
+				m_batchStartedAt = startedAt;
+			}
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Called once all input for this stage has been added: run the last partial batch, and wait till all is done.
+	 */
+	void finish() throws Exception {
+		flush(0);
+		m_runner.waitTillFinished();
+	}
+
+	void close() throws Exception {
+		m_runner.close();
+	}
+
+	void reportStatus() {
+		System.out.println("---- stage " + m_name + ": " + m_threads + " threads, batches of " + m_batchSize);
+		m_runner.reportStatus();
+	}
+}
@@ -0,0 +1,44 @@
+package com.htec.examples.parallelrunner.pipeline;
+
+import com.htec.examples.parallelrunner.bulk.AbstractTaskExecutor;
+import com.htec.examples.parallelrunner.bulk.BulkTaskRunner;
+import com.htec.util.WrappedException;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.util.List;
+
+/**
+ * Runs the batches of a stage through the worker of its thread.
+ */
+@NonNullByDefault
+final class StageExecutor<I, O> extends AbstractTaskExecutor<List<I>, Integer> {
+	private final Stage<I, O> m_stage;
+
+	private final StageWorker<I, O> m_worker;
+
+	StageExecutor(Stage<I, O> stage, BulkTaskRunner<List<I>, Integer> runner) {
+		super(runner);
+		m_stage = stage;
+		m_worker = stage.createWorker();
+	}
+
+	@Override
+	protected void initialize() throws Exception {
+		m_worker.initialize();
+	}
+
+	@Override
+	protected void terminate() throws Exception {
+		m_worker.terminate();
+	}
+
+	@Override
+	protected Integer executeOnce(List<I> batch) {
+		try {
+			m_worker.process(batch, m_stage::emit);
+		} catch(Exception x) {
+			throw WrappedException.wrap(x);
+		}
+		return batch.size();
+	}
+}
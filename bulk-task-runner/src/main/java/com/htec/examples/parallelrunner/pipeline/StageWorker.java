@@ -0,0 +1,26 @@
+package com.htec.examples.parallelrunner.pipeline;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Does the work of one pipeline stage on one of its threads. Every thread of a stage gets its own worker, so a
+ * worker can hold resources like a connection: initialize and terminate are called on that thread, once, around
+ * all batches it processes.
+ */
+@NonNullByDefault
+public interface StageWorker<I, O> {
+	default void initialize() throws Exception {
+	}
+
+	/**
+	 * Process one batch of inputs, passing any number of results to output. Output goes to the next stage and
+	 * blocks while that stage is full, which is how backpressure travels up to whoever feeds the pipeline.
+	 */
+	void process(List<I> batch, Consumer<? super O> output) throws Exception;
+
+	default void terminate() throws Exception {
+	}
+}
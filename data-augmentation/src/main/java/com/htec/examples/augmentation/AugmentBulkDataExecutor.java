@@ -4,22 +4,25 @@ import com.htec.examples.parallelrunner.bulk.AbstractTaskExecutor;
 import com.htec.examples.parallelrunner.bulk.BulkTaskRunner;
 import com.htec.examples.augmentation.data.AugmentBulkData;
 import com.htec.examples.augmentation.task.AddHashColumnTask;
+import com.htec.util.CancelledException;
+import com.htec.util.IAnyRecord;
 import com.htec.util.JdbcAnyRecord;
 import com.htec.util.Progress;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 
-import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Bulk executor for augmentation tasks on batch of work.
- * Prepares the bulk infrastructure once and reuses it for all batches. Executes all per-record actions and reports failures.
+ * Prepares the bulk infrastructure once and reuses it for all batches. Executes all per-record actions, writes the
+ * augmented records back through its own {@link BatchUpdateWriter} and reports failures.
  */
 @NonNullByDefault
-public class AugmentBulkDataExecutor extends AbstractTaskExecutor<AugmentBulkData> {
-
-	private static final Duration DELAY_FAILURES_RETRIES = Duration.ofSeconds(3);
+public class AugmentBulkDataExecutor extends AbstractTaskExecutor<AugmentBulkData, AugmentBulkDataExecutor.AugmentResult> {
 
 	/**
 	 * Model for failure on the level of individual record.
@@ -27,16 +30,28 @@ public class AugmentBulkDataExecutor extends AbstractTaskExecutor<AugmentBulkDat
 	@NonNullByDefault
 	public static class FailedAugmentationRecord {
 
+		final IAnyRecord m_source;
 		final JdbcAnyRecord m_record;
 		final String m_error;
 		final Exception m_exception;
 
-		public FailedAugmentationRecord(JdbcAnyRecord record, String error, Exception exception) {
-			m_record = record;
+		public FailedAugmentationRecord(IAnyRecord source, String error, Exception exception) {
+			m_source = source;
+			m_record = source.asRecord();
 			m_error = error;
 			m_exception = exception;
 		}
 
+		/**
+		 * The record as it was processed: the record itself or a row of a columnar batch.
+		 */
+		public IAnyRecord getSource() {
+			return m_source;
+		}
+
+		/**
+		 * The record, copied from the batch when it was a batch row, so it can be kept and retried.
+		 */
 		public JdbcAnyRecord getRecord() {
 			return m_record;
 		}
@@ -46,22 +61,64 @@ public class AugmentBulkDataExecutor extends AbstractTaskExecutor<AugmentBulkDat
 		}
 	}
 
+	/**
+	 * Immutable outcome of one batch.
+	 */
+	@NonNullByDefault
+	public static class AugmentResult {
+
+		private final int m_retryIndex;
+
+		private final int m_numberOfAugmentedRecords;
+
+		private final List<FailedAugmentationRecord> m_failures;
+
+		private final List<IAnyRecord> m_writtenRecords;
+
+		public AugmentResult(int retryIndex, List<? extends IAnyRecord> writtenRecords, List<FailedAugmentationRecord> failures) {
+			m_retryIndex = retryIndex;
+			m_numberOfAugmentedRecords = writtenRecords.size();
+			m_writtenRecords = List.copyOf(writtenRecords);
+			m_failures = List.copyOf(failures);
+		}
+
+		public int getRetryIndex() {
+			return m_retryIndex;
+		}
+
+		public int getNumberOfAugmentedRecords() {
+			return m_numberOfAugmentedRecords;
+		}
+
+		public List<FailedAugmentationRecord> getFailures() {
+			return m_failures;
+		}
+
+		/**
+		 * The records whose changes were committed.
+		 */
+		public List<IAnyRecord> getWrittenRecords() {
+			return m_writtenRecords;
+		}
+	}
+
 	private final Progress m_p;
 
+	private final BatchUpdateWriter m_writer;
 
 	private final List<FailedAugmentationRecord> m_failures = new ArrayList<>();
 
-	private int m_numberOfBatchedAugmentedRecords;
+	/** Records augmented in the current batch, waiting to be written. */
+	private final List<IAnyRecord> m_batchedRecords = new ArrayList<>();
 
-	private int m_numberOfAugmentedRecords;
+	private final List<IAnyRecord> m_writtenRecords = new ArrayList<>();
 
 	private boolean m_initialized = false;
 
-	private int m_currentTaskRetryIndex = -1;
-
-	public AugmentBulkDataExecutor(Progress p, BulkTaskRunner<AugmentBulkData> runner) {
+	public AugmentBulkDataExecutor(Progress p, BulkTaskRunner<AugmentBulkData, AugmentResult> runner, BatchUpdateWriter writer) {
 		super(runner);
 		m_p = p;
+		m_writer = writer;
 	}
 
 	@Override
@@ -81,76 +138,64 @@ public class AugmentBulkDataExecutor extends AbstractTaskExecutor<AugmentBulkDat
 	}
 
 	@Override
-	protected void executeOnce(AugmentBulkData data) {
+	protected AugmentResult executeOnce(AugmentBulkData data) {
 		clearPerBatchState();
-		m_currentTaskRetryIndex = data.getRetryIndex();
-
-		checkForDelayAtStartup(data);
 
-		for(JdbcAnyRecord record: data.getRecords()) {
+		for(IAnyRecord record: data.getRecords()) {
+			if(Thread.currentThread().isInterrupted() || m_p.isCancelled())
+				throw new CancelledException();				// The runner was aborted
 			executeAugmentationPerRecord(record);
 		}
 
 		executeBatchDataUpdates();
+		return new AugmentResult(data.getRetryIndex(), m_writtenRecords, m_failures);
 	}
 
 	private void clearPerBatchState() {
-		m_currentTaskRetryIndex = -1;
-		m_numberOfBatchedAugmentedRecords = 0;
-		m_numberOfAugmentedRecords = 0;
+		m_batchedRecords.clear();
+		m_writtenRecords.clear();
 		m_failures.clear();
 	}
 
-	private void checkForDelayAtStartup(AugmentBulkData data) {
-		Duration startupDelay = data.getRetryIndex() == 0 ? null : DELAY_FAILURES_RETRIES;
-		if(null != startupDelay) {
-			try {
-				System.out.println("Retries delay of " + startupDelay.toMillis() + "ms");
-				Thread.sleep(startupDelay.toMillis());
-			}catch(Exception ex) {
-				ex.printStackTrace();
-			}
-		}
-	}
-
-	private void executeAugmentationPerRecord(JdbcAnyRecord record) {
+	private void executeAugmentationPerRecord(IAnyRecord record) {
 		AddHashColumnTask task = new AddHashColumnTask(record);
-		task.setOnCompleted(() -> {
-			if(!m_p.isCancelled()) {
-				m_p.increment(1);
-			}
-		});
 		try {
 			task.run(m_p);
-			m_numberOfBatchedAugmentedRecords++;
+			m_batchedRecords.add(record);
 		}catch(Exception ex) {
 			m_failures.add(new FailedAugmentationRecord(record, ex.getLocalizedMessage(), ex));
 		}
 	}
 
+	/**
+	 * Write the augmented records; those that could not be written are failures like any other, so they get retried.
+	 * Progress counts records once they are written, so a retried record is not counted twice.
+	 */
 	private void executeBatchDataUpdates() {
-		if(m_numberOfBatchedAugmentedRecords > 0) {
-			System.out.println("Executed batch changes of " + m_numberOfBatchedAugmentedRecords + " records!");
-			m_numberOfAugmentedRecords += m_numberOfBatchedAugmentedRecords;
+		if(m_batchedRecords.isEmpty()) {
+			return;
+		}
+		List<FailedAugmentationRecord> failures = m_writer.write(m_batchedRecords);
+		m_failures.addAll(failures);
+		Set<IAnyRecord> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+		failures.forEach(f -> failed.add(f.getSource()));
+		for(IAnyRecord record : m_batchedRecords) {
+			if(!failed.contains(record)) {
+				m_writtenRecords.add(record);
+			}
+		}
+		int written = m_writtenRecords.size();
+		System.out.println("Executed batch changes of " + written + " records" + (failures.isEmpty() ? "!" : ", " + failures.size() + " failed"));
+		if(!m_p.isCancelled()) {
+			m_p.increment(written);
 		}
-	}
-	public int getNumberOfAugmentedRecords() {
-		return m_numberOfAugmentedRecords;
-	}
-
-	public List<FailedAugmentationRecord> getFailures() {
-		return m_failures;
-	}
-
-	public int getCurrentTaskRetryIndex() {
-		return m_currentTaskRetryIndex;
 	}
 
-	private void initializeResources() {
-
+	private void initializeResources() throws Exception {
+		m_writer.open();
 	}
 
-	private void releaseResources() {
-
+	private void releaseResources() throws Exception {
+		m_writer.close();
 	}
 }
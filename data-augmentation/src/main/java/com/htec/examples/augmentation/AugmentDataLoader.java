@@ -1,81 +1,278 @@
 package com.htec.examples.augmentation;
 
+import com.htec.examples.parallelrunner.bulk.AbortReport;
+import com.htec.examples.parallelrunner.bulk.AdaptiveBatchSizer;
 import com.htec.examples.parallelrunner.bulk.BulkTaskRunner;
+import com.htec.examples.parallelrunner.bulk.DispatchPolicy;
+import com.htec.examples.parallelrunner.bulk.RetryBackoff;
+import com.htec.examples.parallelrunner.bulk.TaskClass;
+import com.htec.examples.augmentation.AugmentBulkDataExecutor.AugmentResult;
 import com.htec.examples.augmentation.AugmentBulkDataExecutor.FailedAugmentationRecord;
+import com.htec.examples.augmentation.FailureJournal.Kind;
 import com.htec.examples.augmentation.data.AugmentBulkData;
-import com.htec.stubs.FakeResultSet;
 import com.htec.util.*;
+import com.htec.util.JdbcRecordSource.FetchMode;
+import com.htec.util.JdbcRecordSource.Partitioning;
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import static java.util.Objects.requireNonNull;
 
 @NonNullByDefault
-public class AugmentDataLoader {
-
-    private static final int AUGMENT_CHUNK_SIZE = 100;
+public class AugmentDataLoader implements AutoCloseable {
 
     private static final int TOTAL_RECORDS_FOR_AUGMENT = 1000;
 
-    private final int m_maxThreads = 8;
+    /**
+     * The executor pool is elastic: it grows toward the max while reading the input keeps all executors busy, and
+     * shrinks back when executors stay idle, for instance during the retry tail, so they release their resources.
+     */
+    private final int m_minThreads = 2;
+
+    private final int m_maxThreads = Math.max(8, Runtime.getRuntime().availableProcessors());
+
+    private static final Duration EXECUTOR_IDLE_TIMEOUT = Duration.ofSeconds(10);
+
+    private static final Duration EXECUTOR_GROW_QUEUE_WAIT = Duration.ofMillis(200);
+
+    /**
+     * Failed records are retried after 3s, 6s, 12s, ... (max 1 minute), minus up to half of that as jitter.
+     */
+    private static final RetryBackoff RETRY_BACKOFF = new RetryBackoff(Duration.ofSeconds(3), Duration.ofMinutes(1), 0.5d);
+
+    /**
+     * Chunks are sized so that augmenting one takes about 2 seconds; the best size differs a lot between tables and
+     * with the load on the remote side, so it follows the measured batch durations.
+     */
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    private final AdaptiveBatchSizer m_batchSizer = new AdaptiveBatchSizer(10, MAX_BATCH_SIZE, 100, Duration.ofSeconds(2));
+
+    /**
+     * Each executor writes the augmented records back with this update, flushing and committing per this many rows.
+     */
+    private static final String UPDATE_SQL = "UPDATE table1 SET hash = ? WHERE id = ?";
+
+    private static final List<String> UPDATE_PARAMETER_COLUMNS = List.of("hash", "id");
+
+    private static final int WRITE_FLUSH_SIZE = 100;
+
+    /**
+     * All connections come from one pool: one per input partition for the whole read, and a few that the executors
+     * lease per batch to write it, so that a growing executor pool does not need a connection per thread.
+     */
+    private static final int WRITE_CONNECTIONS = 4;
+
+    private static final Duration CONNECTION_MAX_WAIT = Duration.ofMinutes(1);
+
+    /**
+     * The input is read through cursors on their own threads, which stay up to this many blocks of rows ahead, so
+     * that fetching overlaps with the augmentation. On large tables one cursor cannot keep the executors busy, so
+     * the input is split in id ranges read at the same time; their number is independent of the executor count.
+     */
+    private static final int READ_FETCH_SIZE = 500;
+
+    private static final int READ_PARTITIONS = 4;
+
+    private static final int READ_AHEAD_BLOCKS = 4;
+
+    /**
+     * How chunks read from the input are kept while they wait and run. Retries stay lists of the failed records.
+     */
+    private enum ChunkStorage {
+        /** A list of the records as read. */
+        RECORDS,
+        /** A {@link ColumnarBatch}: a few arrays per column instead of an object per record and value. */
+        COLUMNAR,
+        /** An {@link OffHeapBatch} in direct buffers, for chunks so large that even a columnar batch weighs on the heap. */
+        OFF_HEAP
+    }
+
+    private static final ChunkStorage CHUNK_STORAGE = ChunkStorage.COLUMNAR;
+
+    /**
+     * Off-heap chunks take segments from a pool and give them back once their result is handled; the pool keeps two
+     * free segments for every batch that can be running or queued.
+     */
+    private static final int SEGMENT_SIZE = 256 * 1024;
+
+    /**
+     * Batches queued per executor thread, so that reading the next chunks overlaps with processing the current ones.
+     */
+    private final int m_queuedBatchesPerThread = 2;
+
+    private final SegmentPool m_segmentPool = new SegmentPool(SEGMENT_SIZE, 2 * (m_queuedBatchesPerThread + 1) * m_maxThreads);
+
+    /**
+     * The input is read into pooled records, which go back to the pool as soon as they are copied into a batch, or
+     * for RECORDS chunks once the chunk's result is handled; failures keep copies. The pool keeps enough records
+     * for the read-ahead, and for RECORDS also for the chunks that can be running or queued.
+     */
+    private final RecordPool m_recordPool = new RecordPool((READ_AHEAD_BLOCKS + READ_PARTITIONS + 1) * READ_FETCH_SIZE
+        + (CHUNK_STORAGE == ChunkStorage.RECORDS ? (m_queuedBatchesPerThread + 1) * m_maxThreads * MAX_BATCH_SIZE : 0));
 
     private int m_numberOfFoundRecordsForAugment = -1;
 
     private int m_maxRepeatsOnFailure = -1;
 
-    private List<FailedAugmentationRecord> m_allRetriesFailedRecordsList = new ArrayList<>();
+    /**
+     * Records that failed for good go to a journal on disk instead of the heap; the report reads it back, and a
+     * later run can retry the ones whose retries were exhausted with {@link #retryFrom(Path)}.
+     */
+    private final Path m_failureJournalFile;
+
+    @Nullable
+    private FailureJournal m_failureJournal;
 
-    private List<FailedAugmentationRecord> m_irreparableRecordsList = new ArrayList<>();
+    /** Failed records shown per kind in the report; the journal has them all. */
+    private static final int REPORTED_FAILURES = 20;
 
     private AtomicInteger m_numberOfAugmentedRecords = new AtomicInteger(0);
 
     @Nullable
-    private BulkTaskRunner<AugmentBulkData> m_runner;
+    private BulkTaskRunner<AugmentBulkData, AugmentResult> m_runner;
 
-    private final List<AugmentBulkData> m_reworkList = new ArrayList<>();
+    /**
+     * Completes the runner's futures, so it runs the result handling with its checkpoint forces and journal writes.
+     * A thread of its own keeps that blocking I/O off the common pool; the checkpoint and journal locks serialized
+     * it anyway.
+     */
+    @Nullable
+    private ExecutorService m_resultExecutor;
+
+    /**
+     * The first batch that failed as a whole; the run stops scheduling and rethrows it.
+     */
+    private final AtomicReference<Throwable> m_fatalError = new AtomicReference<>();
+
+    /**
+     * When the run was cancelled: the batches that still need to be done, to be resubmitted by a later run.
+     */
+    @Nullable
+    private AbortReport<AugmentBulkData> m_abortReport;
+
+    private final ConnectionPool m_connectionPool;
+
+    /**
+     * Ids that need no more work: written, or failed irreparably. A run that dies leaves it behind, and the next
+     * run skips those ids instead of augmenting them again; a run that completes removes it.
+     */
+    private final Path m_checkpointFile;
+
+    @Nullable
+    private IdRangeCheckpoint m_checkpoint;
+
+    public AugmentDataLoader(ConnectionFactory connectionFactory, Path checkpointFile, Path failureJournalFile) {
+        m_connectionPool = new ConnectionPool(connectionFactory, READ_PARTITIONS + WRITE_CONNECTIONS, CONNECTION_MAX_WAIT);
+        m_checkpointFile = checkpointFile;
+        m_failureJournalFile = failureJournalFile;
+    }
+
+    @Override
+    public void close() {
+        m_connectionPool.close();
+    }
 
     public void run() throws Exception {
+        String inputQuery = "SELECT id, col1, col2, col3, hash FROM table1 WHERE hash IS NULL";
+        run(getTotalNumberOfRecordsForAugment(), () -> {
+            JdbcRecordSource rs = JdbcRecordSource.partitioned(m_connectionPool, inputQuery, List.of(), "id", Partitioning.RANGE, READ_PARTITIONS, "table1", READ_FETCH_SIZE, FetchMode.CURSOR,
+                READ_AHEAD_BLOCKS);
+            rs.setRecordPool(m_recordPool);
+            rs.open();
+            return rs;
+        });
+    }
 
-        String inputQuery = "SELECT col1, col2, ... FROM table1 WHERE hashCols is null"; //hypothetical query that returns data to augment
-        m_numberOfFoundRecordsForAugment = getTotalNumberOfRecordsForAugment(inputQuery);
+    /**
+     * Augment only the records whose retries were exhausted in an earlier run, as recorded in its failure journal.
+     */
+    public void retryFrom(Path previousFailureJournal) throws Exception {
+        if(Files.exists(m_failureJournalFile) && Files.isSameFile(previousFailureJournal, m_failureJournalFile)) {
+            throw new IllegalArgumentException("Move " + previousFailureJournal + " away first: this run writes its own failures there");
+        }
+        long count = FailureJournalReader.summarize(previousFailureJournal, 0).getCount(Kind.RETRIES_EXHAUSTED);
+        run((int) count, () -> new FailureJournalReader(previousFailureJournal, Kind.RETRIES_EXHAUSTED));
+    }
+
+    private void run(int numberOfRecords, Callable<RecordSource> input) throws Exception {
+        m_numberOfFoundRecordsForAugment = numberOfRecords;
         Progress rootProgress = setupProgress();
         m_maxRepeatsOnFailure = 5;
         rootProgress.addListener(l -> {
             String msg = rootProgress.getPercentage() + "%";
-            BulkTaskRunner<AugmentBulkData> runner = m_runner;
+            BulkTaskRunner<AugmentBulkData, AugmentResult> runner = m_runner;
             if(null != runner) {
                 msg += " busy with " + runner.getNumberOfRunningExecutors() + " threads";
                 System.out.println(msg);
+                if(rootProgress.isCancelled()) {
+                    runner.signalWork();                                        // Let the driver loop abort right away
+                }
             }
         });
 
-        if(m_numberOfFoundRecordsForAugment > 0) {
-            //PreparedStatement ps = null;
-            //ResultSet rs = null;
-            try {
-                //ps = conn.prepareStatement(inputQuery);
-                //rs = ps.executeQuery();
-                FakeResultSet rs = new FakeResultSet(m_numberOfFoundRecordsForAugment);
-
-                doAugmentationWhileThereIsWork(rootProgress, rs);
-            } finally {
-                //FileTool.closeAll(rs, ps);
-            }
+        IdRangeCheckpoint checkpoint = m_checkpoint = IdRangeCheckpoint.open(m_checkpointFile);
+        boolean resuming = checkpoint.getIdCount() > 0;
+        if(resuming) {
+            System.out.println("Resuming an earlier run: " + checkpoint + " are done already");
         }
+        FailureJournal journal;
+        try {
+            journal = m_failureJournal = FailureJournal.open(m_failureJournalFile, resuming);   // A resumed run adds to the failures of the run it resumes
+        } catch(Exception x) {
+            checkpoint.close();
+            throw x;
+        }
+        try {
+            if(m_numberOfFoundRecordsForAugment > 0) {
+                try(RecordSource rs = input.call()) {
+                    doAugmentationWhileThereIsWork(rootProgress, rs);
+                    if(rs instanceof JdbcRecordSource) {
+                        System.out.println("Input: " + ((JdbcRecordSource) rs).getStatus());
+                    }
+                }
+            }
 
-        BulkTaskRunner<AugmentBulkData> runner = m_runner;
-        if(null != runner) {
-            //if no records were scheduled, runner is not initialized
-            runner.waitTillFinished();
-            runner.close();
-            m_runner = null;
+            BulkTaskRunner<AugmentBulkData, AugmentResult> runner = m_runner;
+            if(null != runner) {
+                //if no records were scheduled, runner is not initialized
+                runner.waitTillFinished();
+                closeRunner(runner);
+            }
+            checkFatalError();
+        } catch(Exception | Error x) {
+            checkpoint.close();                                                 // Keep it for the next run
+            m_checkpoint = null;
+            journal.close();
+            m_failureJournal = null;
+            throw x;
         }
+        checkpoint.delete();
+        m_checkpoint = null;
+        journal.close();
+        m_failureJournal = null;
         requireNonNull(rootProgress).complete();
 
         //-- Report summary
@@ -83,108 +280,219 @@ public class AugmentDataLoader {
         reportErrors();
         System.out.println("Total of " + m_numberOfFoundRecordsForAugment + " records were tried to be augmented");
         System.out.println("Total of " + m_numberOfAugmentedRecords + " records have received data changes");
+        System.out.println("Chunks: " + m_batchSizer.getStatus());
+        System.out.println("Connections: " + m_connectionPool.getStatus());
+        System.out.println("Records: " + m_recordPool.getStatus());
+        if(CHUNK_STORAGE == ChunkStorage.OFF_HEAP) {
+            System.out.println("Off-heap: " + m_segmentPool.getStatus());
+        }
     }
 
-    private void doAugmentationWhileThereIsWork(Progress p, FakeResultSet rs) throws Exception {
+    private void doAugmentationWhileThereIsWork(Progress p, RecordSource rs) throws Exception {
         List<JdbcAnyRecord> chunk = new ArrayList<>();
+        ColumnarBatch batch = null;
+        OffHeapBatch offHeapBatch = null;
         boolean hadAnyWork = false;
+        IdRangeCheckpoint checkpoint = requireNonNull(m_checkpoint);
+        int skipped = 0;
 
         //first we do chunks from selected result set
         while(rs.hasNext()) {
             JdbcAnyRecord a = rs.next();
-            chunk.add(a);
+            if(checkpoint.contains(idOf(a))) {
+                skipped++;                                                      // Done by an earlier run
+                m_recordPool.release(a);
+                continue;
+            }
             hadAnyWork = true;
-            if(chunk.size() == AUGMENT_CHUNK_SIZE) {
-                runAugmentRecordsOnce(p, new AugmentBulkData(chunk, 0));
+            int chunkSize;
+            switch(CHUNK_STORAGE) {
+                default:
+                    chunk.add(a);
+                    chunkSize = chunk.size();
+                    break;
+
+                case COLUMNAR:
+                    if(null == batch)
+                        batch = new ColumnarBatch(a.getSchema(), m_batchSizer.getBatchSize());
+                    batch.add(a);
+                    m_recordPool.release(a);                                    // Copied
+                    chunkSize = batch.size();
+                    break;
+
+                case OFF_HEAP:
+                    if(null == offHeapBatch)
+                        offHeapBatch = new OffHeapBatch(a.getSchema(), m_segmentPool, m_batchSizer.getBatchSize());
+                    offHeapBatch.add(a);
+                    m_recordPool.release(a);
+                    chunkSize = offHeapBatch.size();
+                    break;
+            }
+            if(chunkSize >= m_batchSizer.getBatchSize()) {
+                runAugmentRecordsOnce(p, takeChunk(chunk, batch, offHeapBatch, m_recordPool));
                 chunk = new ArrayList<>();
+                batch = null;
+                offHeapBatch = null;
             }
         }
-        if(!chunk.isEmpty()) {
-            runAugmentRecordsOnce(p, new AugmentBulkData(chunk, 0));
+        if(!chunk.isEmpty() || null != batch || null != offHeapBatch) {
+            runAugmentRecordsOnce(p, takeChunk(chunk, batch, offHeapBatch, m_recordPool));
+        }
+        if(skipped > 0) {
+            System.out.println("Skipped " + skipped + " records done by an earlier run");
+            p.increment(skipped);
         }
 
         if(!hadAnyWork) {
             return;
         }
 
-        //after all initial chunks are sent, we loop while there is any rework left
+        //after all initial chunks are sent, retries are scheduled by the runner itself; wait till all of them are done
         long warntime = System.currentTimeMillis() + 60 * 1000;                // Wait for one minute before reporting loop state
-        BulkTaskRunner<AugmentBulkData> runner = requireNonNull(m_runner);
+        BulkTaskRunner<AugmentBulkData, AugmentResult> runner = requireNonNull(m_runner);
         for(; ; ) {
+            checkCancelled(p);
             long cts = System.currentTimeMillis();
-            boolean report = cts > warntime;
-            AugmentBulkData rework = null;
-            synchronized(m_reworkList) {
-                if(report) {
-                    warntime = cts + 60 * 1000;
-                }
-
-                if(!m_reworkList.isEmpty()) {
-                    rework = m_reworkList.remove(0);
-                }
+            int numberOfPendingTasks = runner.getNumberOfPendingTasks();
+            if(numberOfPendingTasks == 0) {
+                break;
             }
-            if(null != rework) {
-                if(report)
-                    System.out.println("dbg: rework present, " + rework.getRecords().size() + " records need a retry");
-                runAugmentRecordsOnce(p, rework);
-            } else {
-                int numberOfRunningExecutors = runner.getNumberOfRunningExecutors();
-                if(numberOfRunningExecutors == 0) {
-                    break;
-                } else {
-                    if(report) {
-                        System.out.println("dbg: there are still " + numberOfRunningExecutors + " running, sleeping");
-                        runner.reportStatus();
-                    }
-                    try {
-                        Thread.sleep(1_000);
-                    } catch(InterruptedException ex) {
-                        ex.printStackTrace();
-                    }
-                }
+            if(cts > warntime) {
+                warntime = cts + 60 * 1000;
+                System.out.println("dbg: there are still " + numberOfPendingTasks + " batches pending, waiting");
+                runner.reportStatus();
             }
+            runner.awaitWorkOrQuiescence(Duration.ofMillis(Math.max(1, warntime - cts)));
         }
     }
 
+    private static AugmentBulkData takeChunk(List<JdbcAnyRecord> chunk, @Nullable ColumnarBatch batch, @Nullable OffHeapBatch offHeapBatch, RecordPool recordPool) {
+        if(null != batch)
+            return new AugmentBulkData(batch, 0);
+        if(null != offHeapBatch)
+            return new AugmentBulkData(offHeapBatch, 0);
+        return new AugmentBulkData(chunk, 0, recordPool);
+    }
+
     private void runAugmentRecordsOnce(Progress p, AugmentBulkData data) throws Exception {
-        List<JdbcAnyRecord> firstAndLast = List.of(data.getRecords().get(0), data.getRecords().get(data.getRecords().size() - 1));
+        checkFatalError();
+        checkCancelled(p);
+        List<IAnyRecord> firstAndLast = List.of(data.getRecords().get(0), data.getRecords().get(data.getRecords().size() - 1));
         String firstAndLastIds = firstAndLast.stream().map(it -> it.get("ID").toString()).collect(Collectors.joining("..", "[", "]"));
 
         System.out.println("Scheduling bulk of data " + data.getRecords().size() + ", record(s) " + firstAndLastIds);
-        BulkTaskRunner<AugmentBulkData> runner = m_runner;
+        BulkTaskRunner<AugmentBulkData, AugmentResult> runner = m_runner;
         if(runner == null) {
             runner = m_runner = new BulkTaskRunner<>();
-
-            runner.start(me -> new AugmentBulkDataExecutor(p, me),
-                    m_maxThreads,
-                    executor -> {
-                        AugmentBulkDataExecutor abdExecutor = (AugmentBulkDataExecutor) executor;
-                        m_numberOfAugmentedRecords.getAndAdd(abdExecutor.getNumberOfAugmentedRecords());
-                        List<FailedAugmentationRecord> failures = abdExecutor.getFailures();
-                        int retryIndex = abdExecutor.getCurrentTaskRetryIndex();
-                        if(!failures.isEmpty()) {
-                            try {
-                                m_onFailedCallback.accept(failures, retryIndex);
-                            } catch(Exception ex) {
-                                throw new WrappedException("Failure inside onFailedCallback", ex);
-                            }
-                        }
-                    },
-                    (executor, ex) -> {
-                        throw new WrappedException("Exception during data augmentation", ex);
-                    }
-            );
+            ExecutorService resultExecutor = m_resultExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "augment-result-handler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            runner.setCompletionExecutor(resultExecutor);
+            runner.setQueueCapacity(m_queuedBatchesPerThread, m_maxThreads * m_queuedBatchesPerThread);
+            runner.setElastic(m_minThreads, m_maxThreads, EXECUTOR_IDLE_TIMEOUT, EXECUTOR_GROW_QUEUE_WAIT);
+            runner.setDispatchPolicy(DispatchPolicy.retryFirst());          // Redo failures while the remote side is still warm
+            runner.setBatchSizer(m_batchSizer, bulk -> bulk.getRecords().size());
+            runner.registerMBean("augment-data-loader");                   // Watch wait and batch latencies over JMX
+
+            runner.start(me -> new AugmentBulkDataExecutor(p, me, new BatchUpdateWriter(m_connectionPool, UPDATE_SQL, UPDATE_PARAMETER_COLUMNS, WRITE_FLUSH_SIZE)), m_minThreads);
         }
 
         //m_logger.log("Starting to augment chunk of next " + data.getRecords().size() + " records in target table");
 
-        runner.addTask(data);
+        handleResult(data, runner.submit(data));
         System.out.println("Scheduled bulk of data " + data.getRecords().size() + ", record(s) " + firstAndLastIds);
     }
 
+    /**
+     * Handles the outcome of the batch, then releases it: its written records are read for the checkpoint, and the
+     * failures are copies that outlive it, so its pooled records can be reused.
+     */
+    private void handleResult(AugmentBulkData data, CompletableFuture<AugmentResult> future) {
+        future.whenComplete((result, ex) -> {
+            if(ex instanceof CancellationException) {
+                return;                                                         // Aborted; the abort report has it
+            }
+            try {
+                processResult(result, ex);
+            } finally {
+                data.release();
+            }
+        });
+    }
+
+    private void processResult(@Nullable AugmentResult result, @Nullable Throwable ex) {
+        if(null != ex) {
+            m_fatalError.compareAndSet(null, new WrappedException("Exception during data augmentation", ex));
+            return;
+        }
+        AugmentResult done = requireNonNull(result);
+        m_numberOfAugmentedRecords.getAndAdd(done.getNumberOfAugmentedRecords());
+        try {
+            checkpointDone(done.getWrittenRecords());
+        } catch(Exception x) {
+            m_fatalError.compareAndSet(null, new WrappedException("Failed to update the checkpoint", x));
+            return;
+        }
+        List<FailedAugmentationRecord> failures = done.getFailures();
+        if(!failures.isEmpty()) {
+            try {
+                m_onFailedCallback.accept(failures, done.getRetryIndex());
+            } catch(Exception x) {
+                m_fatalError.compareAndSet(null, new WrappedException("Failure inside onFailedCallback", x));
+            }
+        }
+    }
+
+    /**
+     * When the run was cancelled abort the runner instead of letting it finish all running batches, and keep
+     * what was not done.
+     */
+    private void checkCancelled(Progress p) throws Exception {
+        if(!p.isCancelled()) {
+            return;
+        }
+        BulkTaskRunner<AugmentBulkData, AugmentResult> runner = m_runner;
+        if(null != runner) {
+            AbortReport<AugmentBulkData> report = m_abortReport = runner.abort();
+            closeRunner(runner);
+            System.out.println("Run cancelled, " + report + " left to redo");
+        }
+        throw new CancelledException();
+    }
+
+    /**
+     * Close the runner, and let the result handling still queued finish before the checkpoint and journal close.
+     */
+    private void closeRunner(BulkTaskRunner<AugmentBulkData, AugmentResult> runner) throws Exception {
+        runner.close();
+        m_runner = null;
+        ExecutorService resultExecutor = m_resultExecutor;
+        m_resultExecutor = null;
+        if(null != resultExecutor) {
+            resultExecutor.shutdown();
+            if(!resultExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.err.println("Result handling did not finish in time");
+            }
+        }
+    }
+
+    @Nullable
+    public AbortReport<AugmentBulkData> getAbortReport() {
+        return m_abortReport;
+    }
+
+    private void checkFatalError() {
+        Throwable error = m_fatalError.get();
+        if(null != error) {
+            throw WrappedException.wrap(error);
+        }
+    }
+
     private final BiConsumerEx<List<FailedAugmentationRecord>, Integer> m_onFailedCallback = (failedRecords, retryIndex) -> {
 
-        List<FailedAugmentationRecord> reparableFailedActions = scanForReparableFailures(failedRecords);
+        List<FailedAugmentationRecord> reparableFailedActions = scanForReparableFailures(failedRecords, retryIndex);
 
         if(reparableFailedActions.isEmpty()) {
             return;
@@ -202,7 +510,10 @@ public class AugmentDataLoader {
             //-- All attempts failed.
             System.err.println("All configured retries (" + maxRepeatsOnFailure + ") failed: we still have " + reparableFailedActions.size()
                     + " row(s) that did not process, adding them to failed items and continuing...");
-            m_allRetriesFailedRecordsList.addAll(reparableFailedActions);
+            FailureJournal journal = requireNonNull(m_failureJournal);
+            for(FailedAugmentationRecord failed : reparableFailedActions) {
+                journal.append(Kind.RETRIES_EXHAUSTED, retryIndex, failed);
+            }
             return;
         }
         //m_logger.log(reparableFailedActions.size() + " repairable error(s) - retrying " + retryIndex + "/ of total retries " + maxRepeatsOnFailure);
@@ -214,44 +525,82 @@ public class AugmentDataLoader {
         addRework(new AugmentBulkData(failItemList, retryIndex + 1));
     };
 
+    /**
+     * Hands the retry to the runner, which holds it until its backoff delay has passed. Called from the completion
+     * of the failed batch, before that batch stops being pending, so the run cannot end in between.
+     */
     private void addRework(AugmentBulkData rework) {
-        synchronized (m_reworkList) {
-            m_reworkList.add(rework);
-        }
+        Duration delay = RETRY_BACKOFF.delayFor(rework.getRetryIndex());
+        System.out.println("Retry " + rework.getRetryIndex() + " of " + rework.getRecords().size() + " record(s) scheduled in " + delay.toMillis() + "ms");
+        handleResult(rework, requireNonNull(m_runner).submitAfter(rework, delay, TaskClass.RETRY));
     }
 
     @NonNull
-    private List<FailedAugmentationRecord> scanForReparableFailures(List<FailedAugmentationRecord> failedRecords) {
+    private List<FailedAugmentationRecord> scanForReparableFailures(List<FailedAugmentationRecord> failedRecords, int retryIndex) throws IOException {
         List<FailedAugmentationRecord> reparableFailedActions = new ArrayList<>();
+        List<JdbcAnyRecord> irreparable = new ArrayList<>();
+        FailureJournal journal = requireNonNull(m_failureJournal);
         for(FailedAugmentationRecord failedRecord : failedRecords) {
             Exception exception = failedRecord.getException();
             if(isIrreparableException(exception)) {
-                m_irreparableRecordsList.add(failedRecord);
+                journal.append(Kind.IRREPARABLE, retryIndex, failedRecord);
+                irreparable.add(failedRecord.getRecord());
             } else {
                 reparableFailedActions.add(failedRecord);
             }
         }
+        if(!irreparable.isEmpty()) {
+            journal.flush();                                                    // The checkpoint skips them from now on, so they must be in the journal
+            checkpointDone(irreparable);                                        // Trying again would fail the same way
+        }
         return reparableFailedActions;
     }
 
-    private int reportErrors() {
-        int errors = 0;
-        if(!m_irreparableRecordsList.isEmpty()) {
-            System.out.println("Total of " + m_irreparableRecordsList.size() + " records had irreparable failures");
-            for(FailedAugmentationRecord irrFailed : m_irreparableRecordsList) {
-                String errorMessage = irrFailed.getException().getLocalizedMessage();
-                errors++;
-                System.out.println("Failed " + showDataFor(irrFailed.getRecord()) + ": " + errorMessage);
-            }
+    /**
+     * Record that these records need no more work. Called once per batch, after its writes were committed.
+     */
+    private void checkpointDone(List<? extends IAnyRecord> records) throws IOException {
+        IdRangeCheckpoint checkpoint = m_checkpoint;
+        if(null == checkpoint || records.isEmpty()) {
+            return;
+        }
+        long[] ids = new long[records.size()];
+        for(int i = 0; i < ids.length; i++) {
+            ids[i] = idOf(records.get(i));
         }
-        if(!m_allRetriesFailedRecordsList.isEmpty()) {
-            System.out.println("Total of " + m_allRetriesFailedRecordsList.size() + " records had reparable failures with all retries failed");
-            for(FailedAugmentationRecord irrFailed : m_allRetriesFailedRecordsList) {
-                String errorMessage = irrFailed.getException().getLocalizedMessage();
-                errors++;
-                System.out.println("Failed " + showDataFor(irrFailed.getRecord()) + ": " + errorMessage);
+        checkpoint.add(ids);
+    }
+
+    private static long idOf(IAnyRecord record) {
+        if(record.isNull("id"))
+            throw new IllegalStateException("Record without an id: " + record.getAllColumnNames());
+        return record.getLong("id", 0);
+    }
+
+    /**
+     * Report from the failure journal: counts per kind and message, and the first failed records of each kind.
+     */
+    private long reportErrors() throws IOException {
+        FailureJournalReader.Summary summary = FailureJournalReader.summarize(m_failureJournalFile, REPORTED_FAILURES);
+        long errors = 0;
+        for(Kind kind : Kind.values()) {
+            long count = summary.getCount(kind);
+            if(count == 0) {
+                continue;
+            }
+            errors += count;
+            System.out.println("Total of " + count + (kind == Kind.IRREPARABLE ? " records had irreparable failures" : " records had reparable failures with all retries failed"));
+            summary.getMessageCounts(kind).forEach((message, n) -> System.out.println("  " + n + " x " + (message.isEmpty() ? "(other messages)" : message)));
+            for(FailureJournalReader.Entry failed : summary.getSamples(kind)) {
+                System.out.println("Failed " + showDataFor(failed.getRecord()) + ": " + failed.getMessage());
+            }
+            if(count > summary.getSamples(kind).size()) {
+                System.out.println("... and " + (count - summary.getSamples(kind).size()) + " more in " + m_failureJournalFile);
             }
         }
+        if(summary.isTruncated()) {
+            System.err.println("The failure journal " + m_failureJournalFile + " ends in a partly written entry");
+        }
         if(errors > 0) {
             System.err.println("Total " + errors + " errors ^^^ in augmenting data!");
         }
@@ -274,8 +623,12 @@ public class AugmentDataLoader {
         return exception.getMessage().contains("[Irreparable Error]");
     }
 
-    private int getTotalNumberOfRecordsForAugment(String inputQuery) {
-        return TOTAL_RECORDS_FOR_AUGMENT;
+    private int getTotalNumberOfRecordsForAugment() throws SQLException {
+        try(Connection connection = m_connectionPool.getConnection(); Statement st = connection.createStatement();
+            ResultSet rs = st.executeQuery("SELECT count(*) FROM table1 WHERE hash IS NULL")) {
+            rs.next();
+            return rs.getInt(1);
+        }
     }
 
     private Progress setupProgress() {
@@ -285,7 +638,10 @@ public class AugmentDataLoader {
     }
 
     public static void main(String[] args) throws Exception {
-        AugmentDataLoader adl = new AugmentDataLoader();
-        adl.run();
+        ConnectionFactory database = DemoDatabase.create(TOTAL_RECORDS_FOR_AUGMENT);
+        try(AugmentDataLoader adl = new AugmentDataLoader(database, Paths.get("augment-table1.checkpoint"), Paths.get("augment-table1.failures"))) {
+            adl.run();
+        }
+        System.out.println("Total of " + DemoDatabase.countRowsWithHash(database) + " rows in table1 have a hash");
     }
 }
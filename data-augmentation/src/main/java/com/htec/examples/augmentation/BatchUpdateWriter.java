@@ -0,0 +1,231 @@
+package com.htec.examples.augmentation;
+
+import com.htec.examples.augmentation.AugmentBulkDataExecutor.FailedAugmentationRecord;
+import com.htec.util.ConnectionFactory;
+import com.htec.util.IAnyRecord;
+import com.htec.util.RecordSchema;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes augmented records back with one prepared UPDATE, whose parameters are the values of the given record
+ * columns in order. Records are sent flushSize at a time with addBatch/executeBatch, and every flush is its own
+ * transaction. Used by one executor thread at a time: open it in initialize and close it in terminate.
+ *
+ * <p>A connection is only held during {@link #write(List)}: with a {@link com.htec.util.ConnectionPool} as the
+ * factory many executors can share a few connections, and the pool's statement cache keeps the UPDATE prepared.</p>
+ *
+ * <p>When a flush fails only the rows the driver reports as failed are returned as failures, so that only those are
+ * retried: the transaction is rolled back and the other rows are sent again. Rows that update nothing are returned
+ * as irreparable, since retrying them cannot help. Any other SQL error fails the whole flush and drops the connection;
+ * the next flush gets a new one. {@link BatchUpdateWriterCheck} checks this against an in-process database.</p>
+ */
+@NonNullByDefault
+final public class BatchUpdateWriter implements AutoCloseable {
+	private final ConnectionFactory m_connectionFactory;
+
+	private final String m_updateSql;
+
+	private final List<String> m_parameterColumns;
+
+	private final int m_flushSize;
+
+	@Nullable
+	private Connection m_connection;
+
+	@Nullable
+	private PreparedStatement m_statement;
+
+	public BatchUpdateWriter(ConnectionFactory connectionFactory, String updateSql, List<String> parameterColumns, int flushSize) {
+		if(flushSize < 1)
+			throw new IllegalArgumentException("The flush size must be at least 1");
+		m_connectionFactory = connectionFactory;
+		m_updateSql = updateSql;
+		m_parameterColumns = List.copyOf(parameterColumns);
+		m_flushSize = flushSize;
+	}
+
+	/**
+	 * Check that a connection can be had and the update prepared, so that a wrong configuration fails right away.
+	 */
+	public void open() throws SQLException {
+		statement();
+		close();
+	}
+
+	/**
+	 * Write all records with one connection, and return the ones that were not written.
+	 */
+	public List<FailedAugmentationRecord> write(List<? extends IAnyRecord> records) {
+		List<FailedAugmentationRecord> failures = new ArrayList<>();
+		try {
+			for(int from = 0; from < records.size(); from += m_flushSize) {
+				flush(records.subList(from, Math.min(records.size(), from + m_flushSize)), failures);
+			}
+		} finally {
+			releaseConnection();
+		}
+		return failures;
+	}
+
+	private void flush(List<? extends IAnyRecord> records, List<FailedAugmentationRecord> failures) {
+		List<? extends IAnyRecord> todo = records;
+		boolean resent = false;
+		for(;;) {
+			try {
+				int[] counts = executeBatch(todo);
+				requireConnection().commit();
+				for(int i = 0; i < todo.size(); i++) {
+					if(i < counts.length && counts[i] == 0) {
+						failures.add(failure(todo.get(i), new SQLException("[Irreparable Error] the update changed no row")));
+					}
+				}
+				return;
+			} catch(BatchUpdateException x) {
+				rollback();
+				if(resent) {
+					addAll(failures, todo, x);					// Failed again without the bad rows; leave it to the retries
+					return;
+				}
+
+				//-- Drivers either go on after a failed row and mark it, or stop at it: then the counts end before it
+				int[] counts = x.getUpdateCounts();
+				List<IAnyRecord> rest = new ArrayList<>();
+				for(int i = 0; i < todo.size(); i++) {
+					IAnyRecord record = todo.get(i);
+					if(i < counts.length ? counts[i] == Statement.EXECUTE_FAILED : i == counts.length) {
+						failures.add(failure(record, x));
+					} else {
+						rest.add(record);
+					}
+				}
+				if(rest.isEmpty())
+					return;
+				todo = rest;
+				resent = true;
+			} catch(SQLException x) {
+				rollback();
+				releaseConnection();
+				addAll(failures, todo, x);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Binds unboxed values with the matching setter, so that they are not boxed again for setObject.
+	 */
+	static private void bind(PreparedStatement ps, int parameter, IAnyRecord record, String column) throws SQLException {
+		RecordSchema schema = record.getSchema();
+		int index = schema.indexOf(column);
+		if(index >= 0) {
+			RecordSchema.Column col = schema.column(index);
+			if(!record.isNull(col)) {
+				switch(schema.getStorage(index)) {
+					default:
+						break;
+
+					case INT:
+						ps.setInt(parameter, record.getInt(col, 0));
+						return;
+
+					case LONG:
+						ps.setLong(parameter, record.getLong(col, 0));
+						return;
+
+					case DOUBLE:
+						ps.setDouble(parameter, record.getDouble(col, 0));
+						return;
+				}
+			}
+		}
+		ps.setObject(parameter, record.get(column));
+	}
+
+	private int[] executeBatch(List<? extends IAnyRecord> records) throws SQLException {
+		PreparedStatement ps = statement();
+		for(IAnyRecord record : records) {
+			for(int i = 0; i < m_parameterColumns.size(); i++) {
+				bind(ps, i + 1, record, m_parameterColumns.get(i));
+			}
+			ps.addBatch();
+		}
+		try {
+			return ps.executeBatch();
+		} finally {
+			ps.clearBatch();
+		}
+	}
+
+	private PreparedStatement statement() throws SQLException {
+		PreparedStatement ps = m_statement;
+		if(null == ps) {
+			Connection connection = m_connection = m_connectionFactory.getConnection();
+			connection.setAutoCommit(false);
+			ps = m_statement = connection.prepareStatement(m_updateSql);
+		}
+		return ps;
+	}
+
+	private Connection requireConnection() {
+		Connection connection = m_connection;
+		if(null == connection)
+			throw new IllegalStateException("The writer is not open");
+		return connection;
+	}
+
+	private void rollback() {
+		Connection connection = m_connection;
+		if(null == connection)
+			return;
+		try {
+			connection.rollback();
+		} catch(SQLException x) {
+			System.err.println("Rollback failed: " + x);
+			releaseConnection();
+		}
+	}
+
+	private void releaseConnection() {
+		try {
+			close();
+		} catch(SQLException x) {
+			System.err.println("Closing the connection failed: " + x);
+		}
+	}
+
+	static private void addAll(List<FailedAugmentationRecord> failures, List<? extends IAnyRecord> records, SQLException x) {
+		for(IAnyRecord record : records) {
+			failures.add(failure(record, x));
+		}
+	}
+
+	static private FailedAugmentationRecord failure(IAnyRecord record, SQLException x) {
+		return new FailedAugmentationRecord(record, x.getLocalizedMessage(), x);
+	}
+
+	@Override
+	public void close() throws SQLException {
+		PreparedStatement ps = m_statement;
+		Connection connection = m_connection;
+		m_statement = null;
+		m_connection = null;
+		try {
+			if(null != ps) {
+				ps.close();
+			}
+		} finally {
+			if(null != connection) {
+				connection.close();
+			}
+		}
+	}
+}
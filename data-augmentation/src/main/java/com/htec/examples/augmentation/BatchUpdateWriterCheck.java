@@ -0,0 +1,120 @@
+package com.htec.examples.augmentation;
+
+import com.htec.examples.augmentation.AugmentBulkDataExecutor.FailedAugmentationRecord;
+import com.htec.util.ConnectionFactory;
+import com.htec.util.JdbcAnyRecord;
+import com.htec.util.RecordSchema;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Checks {@link BatchUpdateWriter} against an in-process H2 database: a check constraint makes some updates of a
+ * batch fail, and only those rows, plus a row that does not exist, must be returned as failures, while all others
+ * are committed. Run it like the loader, with H2 on the class path; it ends with an exception when a check fails.
+ */
+@NonNullByDefault
+final public class BatchUpdateWriterCheck {
+	static private final String URL = "jdbc:h2:mem:batch-update-check;DB_CLOSE_DELAY=-1";
+
+	static private final int ROWS = 20;
+
+	/** Updated to a negative hash, which the check constraint refuses. */
+	static private final Set<Long> REFUSED = Set.of(3L, 7L, 15L);
+
+	/** Not in the table, so its update changes no row. */
+	static private final long MISSING = 1000L;
+
+	static private final RecordSchema SCHEMA = new RecordSchema("table1", new String[] {"id", "hash"}, new int[] {Types.INTEGER, Types.INTEGER});
+
+	private BatchUpdateWriterCheck() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		ConnectionFactory database = () -> DriverManager.getConnection(URL, "sa", "");
+		for(int flushSize : new int[] {100, 4, 1}) {
+			check(database, flushSize);
+			System.out.println("Flush size " + flushSize + ": only the refused and missing rows failed, all others were written");
+		}
+	}
+
+	static private void check(ConnectionFactory database, int flushSize) throws Exception {
+		createTable(database);
+		List<JdbcAnyRecord> records = new ArrayList<>();
+		for(long id = 0; id < ROWS; id++) {
+			records.add(record(id, REFUSED.contains(id) ? -1 : (int) id * 10));
+		}
+		records.add(record(MISSING, 1));
+
+		List<FailedAugmentationRecord> failures;
+		try(BatchUpdateWriter writer = new BatchUpdateWriter(database, "UPDATE table1 SET hash = ? WHERE id = ?", List.of("hash", "id"), flushSize)) {
+			writer.open();
+			failures = writer.write(records);
+		}
+
+		Set<Long> failed = new TreeSet<>();
+		for(FailedAugmentationRecord failure : failures) {
+			long id = failure.getRecord().getLong("id", -1);
+			failed.add(id);
+			boolean irreparable = failure.getException().getMessage().contains("[Irreparable Error]");
+			if(id == MISSING ? !irreparable : irreparable || !(failure.getException() instanceof BatchUpdateException))
+				throw new IllegalStateException("Flush size " + flushSize + ": id " + id + " failed with " + failure.getException());
+		}
+		Set<Long> expected = new TreeSet<>(REFUSED);
+		expected.add(MISSING);
+		if(!failed.equals(expected) || failures.size() != expected.size())
+			throw new IllegalStateException("Flush size " + flushSize + ": failed " + failed + " (" + failures.size() + " failures), expected " + expected);
+
+		TreeMap<Long, Integer> hashes = readHashes(database);
+		if(hashes.size() != ROWS)
+			throw new IllegalStateException("Flush size " + flushSize + ": table has " + hashes.size() + " rows");
+		for(long id = 0; id < ROWS; id++) {
+			Integer hash = hashes.get(id);
+			Integer expectedHash = REFUSED.contains(id) ? null : (int) id * 10;
+			if(!Objects.equals(hash, expectedHash))
+				throw new IllegalStateException("Flush size " + flushSize + ": id " + id + " has hash " + hash + ", expected " + expectedHash);
+		}
+	}
+
+	static private JdbcAnyRecord record(long id, int hash) {
+		JdbcAnyRecord record = new JdbcAnyRecord(SCHEMA);
+		record.setLong(SCHEMA.column("id"), id);
+		record.setInt(SCHEMA.column("hash"), hash);
+		return record;
+	}
+
+	static private void createTable(ConnectionFactory database) throws SQLException {
+		try(Connection connection = database.getConnection(); Statement st = connection.createStatement()) {
+			st.execute("drop table if exists table1");
+			st.execute("create table table1(id integer primary key, hash integer, constraint hash_not_negative check (hash >= 0))");
+			for(int id = 0; id < ROWS; id++) {
+				st.execute("insert into table1(id) values(" + id + ")");
+			}
+		}
+	}
+
+	static private TreeMap<Long, Integer> readHashes(ConnectionFactory database) throws SQLException {
+		TreeMap<Long, Integer> hashes = new TreeMap<>();
+		try(Connection connection = database.getConnection(); Statement st = connection.createStatement();
+			ResultSet rs = st.executeQuery("select id, hash from table1")) {
+			while(rs.next()) {
+				long id = rs.getLong(1);
+				int hash = rs.getInt(2);
+				hashes.put(id, rs.wasNull() ? null : hash);
+			}
+		}
+		return hashes;
+	}
+}
@@ -0,0 +1,60 @@
+package com.htec.examples.augmentation;
+
+import com.htec.stubs.FakeResultSet;
+import com.htec.util.ConnectionFactory;
+import com.htec.util.JdbcAnyRecord;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * An in-process H2 database holding table1 with stub rows, so that the loader can be run, and its writes checked,
+ * without a database server.
+ */
+@NonNullByDefault
+final public class DemoDatabase {
+	static private final String URL = "jdbc:h2:mem:augment;DB_CLOSE_DELAY=-1";
+
+	private DemoDatabase() {
+	}
+
+	/**
+	 * Create table1 with the given number of rows from a {@link FakeResultSet}; their hash column is empty.
+	 */
+	static public ConnectionFactory create(int rows) throws SQLException {
+		ConnectionFactory connectionFactory = () -> DriverManager.getConnection(URL, "sa", "");
+		try(Connection connection = connectionFactory.getConnection(); Statement st = connection.createStatement()) {
+			st.execute("create table table1(id integer primary key, col1 varchar(64), col2 varchar(64), col3 varchar(64), hash integer)");
+			FakeResultSet rs = new FakeResultSet(rows);
+			try(PreparedStatement ps = connection.prepareStatement("insert into table1(id, col1, col2, col3) values(?, ?, ?, ?)")) {
+				int batched = 0;
+				while(rs.hasNext()) {
+					JdbcAnyRecord record = rs.next();
+					ps.setObject(1, record.get("id"));
+					ps.setObject(2, record.get("col1"));
+					ps.setObject(3, record.get("col2"));
+					ps.setObject(4, record.get("col3"));
+					ps.addBatch();
+					if(++batched % 1000 == 0) {
+						ps.executeBatch();
+					}
+				}
+				ps.executeBatch();
+			}
+		}
+		return connectionFactory;
+	}
+
+	static public int countRowsWithHash(ConnectionFactory connectionFactory) throws SQLException {
+		try(Connection connection = connectionFactory.getConnection(); Statement st = connection.createStatement();
+			ResultSet rs = st.executeQuery("select count(*) from table1 where hash is not null")) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package com.htec.examples.augmentation;
+
+import com.htec.examples.augmentation.AugmentBulkDataExecutor.FailedAugmentationRecord;
+import com.htec.util.JdbcAnyRecord;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+
+/**
+ * Append-only binary file of the records that failed for good, so that a run with millions of failures does not
+ * keep them on the heap. Entries are collected in a buffer of at most {@link #BUFFER_SIZE} bytes, which is written
+ * to the file channel when full and on flush. Only the error message and exception class are kept, not the stack
+ * trace. Read it with {@link FailureJournalReader}.
+ *
+ * <p>The file starts with a magic number; every entry is its length followed by: kind, retry index, exception
+ * class, message and the record's columns with their values. A partly written last entry, from a crash, is ignored
+ * by the reader. Values are kept with their type, so a retry binds them as they were read; a record with a value of
+ * another type, like a Clob, cannot be journaled.</p>
+ */
+@NonNullByDefault
+final public class FailureJournal implements AutoCloseable {
+	public enum Kind {
+		/** Retrying cannot help. */
+		IRREPARABLE,
+
+		/** Failed on every retry; a retry-only run can try these again. */
+		RETRIES_EXHAUSTED
+	}
+
+	static final int MAGIC = 0x41464a31;							// "AFJ1"
+
+	//-- Value tags
+	static final byte NULL = 0;
+
+	static final byte STRING = 1;
+
+	static final byte DECIMAL = 2;
+
+	static final byte INT = 3;
+
+	static final byte LONG = 4;
+
+	static final byte DATE = 5;
+
+	static final byte DOUBLE = 6;
+
+	static private final int BUFFER_SIZE = 64 * 1024;
+
+	private final Path m_file;
+
+	private final FileChannel m_channel;
+
+	/** Entries not yet written to the channel. */
+	private final ByteArrayOutputStream m_buffer = new ByteArrayOutputStream(BUFFER_SIZE);
+
+	/** One entry while it is encoded, to know its length. */
+	private final ByteArrayOutputStream m_entry = new ByteArrayOutputStream();
+
+	private final DataOutputStream m_entryOut = new DataOutputStream(m_entry);
+
+	private final long[] m_counts = new long[Kind.values().length];
+
+	private FailureJournal(Path file, FileChannel channel) {
+		m_file = file;
+		m_channel = channel;
+	}
+
+	/**
+	 * Open the journal, adding to its entries when append is set and the file exists, else starting it empty.
+	 */
+	static public FailureJournal open(Path file, boolean append) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+		try {
+			FailureJournal journal = new FailureJournal(file, channel);
+			if(append && channel.size() >= 4) {
+				ByteBuffer magic = ByteBuffer.allocate(4);
+				channel.read(magic, 0);
+				if(magic.getInt(0) != MAGIC)
+					throw new IOException(file + " is not a failure journal");
+				long end = endOfLastEntry(channel);
+				channel.truncate(end);								// Drop a partly written entry
+				channel.position(end);
+			} else {
+				channel.truncate(0);
+				ByteBuffer magic = ByteBuffer.allocate(4).putInt(0, MAGIC);
+				channel.write(magic, 0);
+				channel.position(4);
+			}
+			return journal;
+		} catch(IOException | RuntimeException x) {
+			channel.close();
+			throw x;
+		}
+	}
+
+	/**
+	 * Where the last complete entry ends.
+	 */
+	static private long endOfLastEntry(FileChannel channel) throws IOException {
+		long size = channel.size();
+		long at = 4;
+		ByteBuffer length = ByteBuffer.allocate(4);
+		for(;;) {
+			length.clear();
+			if(at + 4 > size || channel.read(length, at) < 4)
+				return at;
+			long next = at + 4 + length.getInt(0);
+			if(next > size)
+				return at;
+			at = next;
+		}
+	}
+
+	public synchronized void append(Kind kind, int retryIndex, FailedAugmentationRecord failure) throws IOException {
+		m_entry.reset();
+		m_entryOut.writeByte(kind.ordinal());
+		m_entryOut.writeInt(retryIndex);
+		Exception exception = failure.getException();
+		writeString(m_entryOut, exception.getClass().getName());
+		String message = exception.getLocalizedMessage();
+		writeString(m_entryOut, null == message ? "" : message);
+		JdbcAnyRecord record = failure.getRecord();
+		m_entryOut.writeInt(record.getAllColumnNames().size());
+		for(String column : record.getAllColumnNames()) {
+			writeString(m_entryOut, column);
+			writeValue(m_entryOut, column, record.get(column));
+		}
+		m_entryOut.flush();
+
+		if(m_buffer.size() + 4 + m_entry.size() > BUFFER_SIZE) {
+			writeBuffer();
+		}
+		DataOutputStream out = new DataOutputStream(m_buffer);
+		out.writeInt(m_entry.size());
+		m_entry.writeTo(out);
+		m_counts[kind.ordinal()]++;
+	}
+
+	static private void writeValue(DataOutputStream out, String column, @Nullable Object value) throws IOException {
+		if(null == value) {
+			out.writeByte(NULL);
+		} else if(value instanceof String) {
+			out.writeByte(STRING);
+			writeString(out, (String) value);
+		} else if(value instanceof BigDecimal) {
+			out.writeByte(DECIMAL);
+			writeString(out, value.toString());
+		} else if(value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			out.writeByte(INT);
+			out.writeInt(((Number) value).intValue());
+		} else if(value instanceof Double || value instanceof Float) {
+			out.writeByte(DOUBLE);
+			out.writeDouble(((Number) value).doubleValue());
+		} else if(value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		} else if(value instanceof Date) {
+			out.writeByte(DATE);
+			out.writeLong(((Date) value).getTime());
+		} else {
+			throw new IOException("Cannot journal the " + value.getClass().getName() + " value of column " + column);
+		}
+	}
+
+	static private void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private void writeBuffer() throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(m_buffer.toByteArray());
+		while(bb.hasRemaining()) {
+			m_channel.write(bb);
+		}
+		m_buffer.reset();
+	}
+
+	/**
+	 * Write all buffered entries and force them to disk.
+	 */
+	public synchronized void flush() throws IOException {
+		writeBuffer();
+		m_channel.force(false);
+	}
+
+	public synchronized long getCount(Kind kind) {
+		return m_counts[kind.ordinal()];
+	}
+
+	public Path getFile() {
+		return m_file;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if(!m_channel.isOpen())
+			return;
+		try {
+			flush();
+		} finally {
+			m_channel.close();
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package com.htec.examples.augmentation;
+
+import com.htec.examples.augmentation.FailureJournal.Kind;
+import com.htec.util.JdbcAnyRecord;
+import com.htec.util.RecordSchema;
+import com.htec.util.RecordSource;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a {@link FailureJournal} entry by entry. As a {@link RecordSource} it returns the records of one kind, so
+ * that a retry-only run can take the records whose retries were exhausted as its input; {@link #summarize} makes
+ * the report without holding all entries in memory.
+ */
+@NonNullByDefault
+final public class FailureJournalReader implements RecordSource {
+	/**
+	 * Distinct messages counted per kind; more are counted together, so that messages containing ids cannot make
+	 * the summary grow without bounds.
+	 */
+	static private final int MAX_DISTINCT_MESSAGES = 100;
+
+	static public final class Entry {
+		private final Kind m_kind;
+
+		private final int m_retryIndex;
+
+		private final String m_exceptionClass;
+
+		private final String m_message;
+
+		private final JdbcAnyRecord m_record;
+
+		Entry(Kind kind, int retryIndex, String exceptionClass, String message, JdbcAnyRecord record) {
+			m_kind = kind;
+			m_retryIndex = retryIndex;
+			m_exceptionClass = exceptionClass;
+			m_message = message;
+			m_record = record;
+		}
+
+		public Kind getKind() {
+			return m_kind;
+		}
+
+		public int getRetryIndex() {
+			return m_retryIndex;
+		}
+
+		public String getExceptionClass() {
+			return m_exceptionClass;
+		}
+
+		public String getMessage() {
+			return m_message;
+		}
+
+		public JdbcAnyRecord getRecord() {
+			return m_record;
+		}
+	}
+
+	/**
+	 * Counts per kind and message, with the first few entries of each kind as samples.
+	 */
+	static public final class Summary {
+		private final Map<Kind, Long> m_counts = new EnumMap<>(Kind.class);
+
+		private final Map<Kind, Map<String, Long>> m_messageCounts = new EnumMap<>(Kind.class);
+
+		private final Map<Kind, List<Entry>> m_samples = new EnumMap<>(Kind.class);
+
+		private boolean m_truncated;
+
+		public long getCount(Kind kind) {
+			return m_counts.getOrDefault(kind, 0L);
+		}
+
+		/**
+		 * Count per message, in order of first appearance; messages beyond the first hundred are counted under "".
+		 */
+		public Map<String, Long> getMessageCounts(Kind kind) {
+			return m_messageCounts.getOrDefault(kind, Collections.emptyMap());
+		}
+
+		public List<Entry> getSamples(Kind kind) {
+			return m_samples.getOrDefault(kind, Collections.emptyList());
+		}
+
+		/**
+		 * True when the journal ended in a partly written entry.
+		 */
+		public boolean isTruncated() {
+			return m_truncated;
+		}
+	}
+
+	private final DataInputStream m_in;
+
+	@Nullable
+	private final Kind m_only;
+
+	@Nullable
+	private Entry m_next;
+
+	private boolean m_ended;
+
+	private boolean m_truncated;
+
+	/** The schema of the last entry read; entries of one run all have the same columns. */
+	@Nullable
+	private RecordSchema m_schema;
+
+	/**
+	 * Read the entries of the journal; as a record source only those of kind only, when given.
+	 */
+	public FailureJournalReader(Path file, @Nullable Kind only) throws IOException {
+		m_only = only;
+		m_in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+		try {
+			if(m_in.readInt() != FailureJournal.MAGIC)
+				throw new IOException(file + " is not a failure journal");
+		} catch(IOException x) {
+			m_in.close();
+			throw x;
+		}
+	}
+
+	static public Summary summarize(Path file, int samplesPerKind) throws IOException {
+		Summary summary = new Summary();
+		try(FailureJournalReader reader = new FailureJournalReader(file, null)) {
+			for(;;) {
+				Entry entry = reader.nextEntry();
+				if(null == entry)
+					break;
+				Kind kind = entry.getKind();
+				summary.m_counts.merge(kind, 1L, Long::sum);
+				Map<String, Long> messages = summary.m_messageCounts.computeIfAbsent(kind, k -> new LinkedHashMap<>());
+				String message = messages.containsKey(entry.getMessage()) || messages.size() < MAX_DISTINCT_MESSAGES ? entry.getMessage() : "";
+				messages.merge(message, 1L, Long::sum);
+				List<Entry> samples = summary.m_samples.computeIfAbsent(kind, k -> new ArrayList<>());
+				if(samples.size() < samplesPerKind) {
+					samples.add(entry);
+				}
+			}
+			summary.m_truncated = reader.m_truncated;
+		}
+		return summary;
+	}
+
+	/**
+	 * The next entry of any kind, or null at the end.
+	 */
+	@Nullable
+	public Entry nextEntry() throws IOException {
+		if(m_ended)
+			return null;
+		int first = m_in.read();
+		if(first < 0) {
+			m_ended = true;
+			return null;
+		}
+		byte[] data;
+		try {
+			int length = first << 24 | m_in.readUnsignedByte() << 16 | m_in.readUnsignedByte() << 8 | m_in.readUnsignedByte();
+			data = new byte[length];
+			m_in.readFully(data);
+		} catch(EOFException x) {
+			m_ended = true;
+			m_truncated = true;
+			return null;
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		Kind kind = Kind.values()[in.readUnsignedByte()];
+		int retryIndex = in.readInt();
+		String exceptionClass = readString(in);
+		String message = readString(in);
+		int count = in.readInt();
+		String[] columns = new String[count];
+		Object[] values = new Object[count];
+		for(int i = 0; i < count; i++) {
+			columns[i] = readString(in);
+			values[i] = readValue(in);
+		}
+		RecordSchema schema = m_schema;
+		if(null == schema || !schema.hasNames(columns))
+			m_schema = schema = RecordSchema.of(columns);
+		JdbcAnyRecord record = new JdbcAnyRecord(schema);
+		for(int i = 0; i < count; i++) {
+			record.set(schema.column(i), values[i]);
+		}
+		return new Entry(kind, retryIndex, exceptionClass, message, record);
+	}
+
+	@Nullable
+	static private Object readValue(DataInputStream in) throws IOException {
+		byte tag = in.readByte();
+		switch(tag) {
+			default:
+				throw new IOException("Unknown value tag " + tag);
+
+			case FailureJournal.NULL:
+				return null;
+
+			case FailureJournal.STRING:
+				return readString(in);
+
+			case FailureJournal.DECIMAL:
+				return new BigDecimal(readString(in));
+
+			case FailureJournal.INT:
+				return in.readInt();
+
+			case FailureJournal.LONG:
+				return in.readLong();
+
+			case FailureJournal.DATE:
+				return new Date(in.readLong());
+
+			case FailureJournal.DOUBLE:
+				return in.readDouble();
+		}
+	}
+
+	static private String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public boolean hasNext() throws IOException {
+		while(null == m_next) {
+			Entry entry = nextEntry();
+			if(null == entry)
+				return false;
+			if(null == m_only || entry.getKind() == m_only) {
+				m_next = entry;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public JdbcAnyRecord next() throws IOException {
+		if(!hasNext())
+			throw new IllegalStateException("No more entries");
+		Entry entry = m_next;
+		m_next = null;
+		return entry.getRecord();
+	}
+
+	@Override
+	public void close() throws IOException {
+		m_in.close();
+	}
+}
@@ -1,12 +1,18 @@
 package com.htec.examples.augmentation.data;
 
-import com.htec.util.JdbcAnyRecord;
+import com.htec.util.ColumnarBatch;
+import com.htec.util.IAnyRecord;
+import com.htec.util.OffHeapBatch;
+import com.htec.util.RecordPool;
 import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
 
 import java.util.List;
 
 /**
- * Data class for one single batch of processing for augmentation.
+ * Data class for one single batch of processing for augmentation: a list of records, or a {@link ColumnarBatch} or
+ * {@link OffHeapBatch} whose rows are the records. Call {@link #release()} once the batch and its result are done
+ * with: it gives the records back to their {@link RecordPool}, or the buffers to their pool.
  */
 @NonNullByDefault
 public class AugmentBulkData {
@@ -14,23 +20,79 @@ public class AugmentBulkData {
 	/**
 	 * Records to be processed inside a batch of work.
 	 */
-	private final List<JdbcAnyRecord> m_records;
+	private final List<? extends IAnyRecord> m_records;
+
+	@Nullable
+	private final ColumnarBatch m_batch;
+
+	@Nullable
+	private final OffHeapBatch m_offHeapBatch;
+
+	@Nullable
+	private final RecordPool m_recordPool;
 
 	/**
 	 * Retry index.
 	 */
 	private final int m_retryIndex;
 
-	public AugmentBulkData(List<JdbcAnyRecord> records, int retryIndex) {
+	public AugmentBulkData(List<? extends IAnyRecord> records, int retryIndex) {
+		this(records, retryIndex, null);
+	}
+
+	/**
+	 * Records of which those leased from the pool go back to it on release.
+	 */
+	public AugmentBulkData(List<? extends IAnyRecord> records, int retryIndex, @Nullable RecordPool recordPool) {
 		m_records = records;
+		m_batch = null;
+		m_offHeapBatch = null;
+		m_recordPool = recordPool;
 		m_retryIndex = retryIndex;
 	}
 
-	public List<JdbcAnyRecord> getRecords() {
+	public AugmentBulkData(ColumnarBatch batch, int retryIndex) {
+		m_records = batch.rows();
+		m_batch = batch;
+		m_offHeapBatch = null;
+		m_recordPool = null;
+		m_retryIndex = retryIndex;
+	}
+
+	public AugmentBulkData(OffHeapBatch batch, int retryIndex) {
+		m_records = batch.rows();
+		m_batch = null;
+		m_offHeapBatch = batch;
+		m_recordPool = null;
+		m_retryIndex = retryIndex;
+	}
+
+	public List<? extends IAnyRecord> getRecords() {
 		return m_records;
 	}
 
+	/**
+	 * The batch when the records are kept by column, else null.
+	 */
+	@Nullable
+	public ColumnarBatch getBatch() {
+		return m_batch;
+	}
+
 	public int getRetryIndex() {
 		return m_retryIndex;
 	}
+
+	/**
+	 * Gives pooled records, or the buffers of an off-heap batch, back to their pool; the records cannot be used
+	 * after this.
+	 */
+	public void release() {
+		RecordPool recordPool = m_recordPool;
+		if(null != recordPool)
+			recordPool.releaseAll(m_records);
+		OffHeapBatch offHeapBatch = m_offHeapBatch;
+		if(null != offHeapBatch)
+			offHeapBatch.close();
+	}
 }
@@ -1,6 +1,6 @@
 package com.htec.examples.augmentation.task;
 
-import com.htec.util.JdbcAnyRecord;
+import com.htec.util.IAnyRecord;
 import com.htec.util.Progress;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
@@ -15,16 +15,16 @@ import java.util.concurrent.ThreadLocalRandom;
  * kind of error is not retired since it represents kind of invalid data for our stub augmentation task.
  */
 @NonNullByDefault
-public class AddHashColumnTask implements IDataTask<JdbcAnyRecord> {
+public class AddHashColumnTask implements IDataTask<IAnyRecord> {
 
     private final int ERROR_PROBABILITY_FACTOR = 100;
 
-    private final JdbcAnyRecord m_data;
+    private final IAnyRecord m_data;
 
     @Nullable
     private Runnable m_onSuccess;
 
-    public AddHashColumnTask(JdbcAnyRecord data) {
+    public AddHashColumnTask(IAnyRecord data) {
         m_data = data;
     }
 
@@ -69,7 +69,7 @@ public class AddHashColumnTask implements IDataTask<JdbcAnyRecord> {
     /**
      * For the purpose of simulation, we define certain combination of data as irreparable error.
      */
-    public static boolean isIrreparableError(JdbcAnyRecord rec) {
+    public static boolean isIrreparableError(IAnyRecord rec) {
         return "Fred".equals(rec.get("col1")) && "hates".equals(rec.get("col2")) && "Apple".equals(rec.get("col3"));
     }
 }
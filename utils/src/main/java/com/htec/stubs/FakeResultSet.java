@@ -1,8 +1,13 @@
 package com.htec.stubs;
 
 import com.htec.util.JdbcAnyRecord;
+import com.htec.util.RecordPool;
+import com.htec.util.RecordSchema;
+import com.htec.util.RecordSource;
 import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
 
+import java.sql.Types;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
@@ -10,9 +15,10 @@ import java.util.concurrent.ThreadLocalRandom;
  * Utility for showcases that do not require real database access.
  * Exercises common behavior as result set, like hasNext, next.
  * Initialized by required total number of stub data.
+ * Given a {@link RecordPool}, the records are leased from it.
  */
 @NonNullByDefault
-public class FakeResultSet {
+public class FakeResultSet implements RecordSource {
 
     private static final String[] FRUITS = {"Apple","Mango","Peach","Banana","Orange","Grapes","Watermelon","Tomato"};
 
@@ -20,27 +26,50 @@ public class FakeResultSet {
 
     private static final String[] TRANSITIVE_VERB = {"loves", "hates", "sees", "knows", "looks for", "finds"};
 
+    /** The stub columns, and the hash that the augmentation fills in. */
+    private static final RecordSchema SCHEMA = new RecordSchema("table1", new String[] {"ID", "col1", "col2", "col3", "hash"},
+        new int[] {Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.INTEGER});
+
+    private static final RecordSchema.Column ID = SCHEMA.column("ID");
+
+    private static final RecordSchema.Column COL1 = SCHEMA.column("col1");
+
+    private static final RecordSchema.Column COL2 = SCHEMA.column("col2");
+
+    private static final RecordSchema.Column COL3 = SCHEMA.column("col3");
+
     private int m_current = 0;
 
     private final int m_totalCount;
 
+    @Nullable
+    private final RecordPool m_recordPool;
+
     public FakeResultSet(int totalCount) {
+        this(totalCount, null);
+    }
+
+    public FakeResultSet(int totalCount, @Nullable RecordPool recordPool) {
         m_totalCount = totalCount;
+        m_recordPool = recordPool;
     }
 
+    @Override
     public boolean hasNext() {
         return m_totalCount > m_current;
     }
 
+    @Override
     public JdbcAnyRecord next() {
         if(!hasNext()) {
             throw new IllegalStateException("no more records in fake result set!");
         }
-        JdbcAnyRecord rec = new JdbcAnyRecord();
-        rec.set("ID", m_current);
-        rec.set("col1", random(NAMES));
-        rec.set("col2", random(TRANSITIVE_VERB));
-        rec.set("col3", random(FRUITS));
+        RecordPool pool = m_recordPool;
+        JdbcAnyRecord rec = null == pool ? new JdbcAnyRecord(SCHEMA) : pool.lease(SCHEMA);
+        rec.setInt(ID, m_current);
+        rec.set(COL1, random(NAMES));
+        rec.set(COL2, random(TRANSITIVE_VERB));
+        rec.set(COL3, random(FRUITS));
         m_current++;
         return rec;
     }
@@ -0,0 +1,761 @@
+package com.htec.util;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.math.BigDecimal;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * A batch of rows kept by column instead of as one record per row: a {@link Vector} per column of the schema, an
+ * int, long or double array for the columns that {@link RecordSchema.Storage} keeps unboxed and an object array for
+ * the others, each with a bitmap of the null rows. Object columns holding strings are dictionary encoded while they
+ * have few distinct values (like names or states), so each row costs an int and each distinct string is kept once.
+ *
+ * <p>Batch tasks can scan a column through its vector. Code that works on single records gets a {@link Row} for each
+ * row, a flyweight {@link IAnyRecord} that reads and writes the vectors.</p>
+ */
+@NonNullByDefault
+final public class ColumnarBatch {
+	/** The distinct strings a column can have before it stops being dictionary encoded. */
+	static private final int DICTIONARY_LIMIT = 4096;
+
+	private final RecordSchema m_schema;
+
+	private final Vector[] m_vectors;
+
+	private int m_size;
+
+	private int m_capacity;
+
+	/** The last schema found to have the same columns as ours, whose records are copied by column index. */
+	@Nullable
+	private RecordSchema m_sameColumnsSchema;
+
+	public ColumnarBatch(RecordSchema schema, int initialCapacity) {
+		m_schema = schema;
+		m_capacity = Math.max(1, initialCapacity);
+		m_vectors = new Vector[schema.size()];
+		for(int i = 0; i < m_vectors.length; i++) {
+			m_vectors[i] = newVector(schema.getStorage(i), m_capacity);
+		}
+	}
+
+	static public ColumnarBatch of(RecordSchema schema, List<? extends IAnyRecord> records) {
+		ColumnarBatch batch = new ColumnarBatch(schema, records.size());
+		for(IAnyRecord record : records) {
+			batch.add(record);
+		}
+		return batch;
+	}
+
+	static private Vector newVector(RecordSchema.Storage storage, int capacity) {
+		switch(storage) {
+			default:
+				return new ObjectVector(capacity);
+
+			case INT:
+				return new IntVector(capacity);
+
+			case LONG:
+				return new LongVector(capacity);
+
+			case DOUBLE:
+				return new DoubleVector(capacity);
+		}
+	}
+
+	/**
+	 * Copies the values of the record into a new row, by column name; columns of the record that are not in the
+	 * schema of the batch are ignored. Returns the index of the row.
+	 */
+	public int add(IAnyRecord record) {
+		if(m_size == m_capacity) {
+			m_capacity *= 2;
+			for(Vector vector : m_vectors) {
+				vector.grow(m_capacity);
+			}
+		}
+		int row = m_size++;
+		RecordSchema schema = record.getSchema();
+		boolean byIndex = schema == m_schema || schema == m_sameColumnsSchema;
+		if(!byIndex && m_schema.hasSameColumns(schema)) {
+			m_sameColumnsSchema = schema;
+			byIndex = true;
+		}
+		for(int i = 0; i < m_vectors.length; i++) {
+			m_vectors[i].copy(row, record, byIndex ? schema.column(i) : m_schema.column(i));
+		}
+		return row;
+	}
+
+	public int size() {
+		return m_size;
+	}
+
+	public RecordSchema getSchema() {
+		return m_schema;
+	}
+
+	public Vector vector(RecordSchema.Column column) {
+		if(column.getSchema() != m_schema)
+			return m_vectors[m_schema.column(column.getName()).getIndex()];
+		return m_vectors[column.getIndex()];
+	}
+
+	public Vector vector(int columnIndex) {
+		return m_vectors[columnIndex];
+	}
+
+	/**
+	 * A flyweight for the row; it keeps the batch alive, use {@link Row#asRecord()} to keep the values only.
+	 */
+	public Row row(int index) {
+		Objects.checkIndex(index, m_size);
+		return new Row(index);
+	}
+
+	/**
+	 * The rows as a list, making each Row when it is asked for.
+	 */
+	public List<Row> rows() {
+		return new RowList();
+	}
+
+	private final class RowList extends AbstractList<Row> implements RandomAccess {
+		@Override
+		public Row get(int index) {
+			return row(index);
+		}
+
+		@Override
+		public int size() {
+			return m_size;
+		}
+	}
+
+	/**
+	 * A row of the batch, reading and writing its values in the vectors.
+	 */
+	final public class Row implements IAnyRecord {
+		private final int m_row;
+
+		Row(int row) {
+			m_row = row;
+		}
+
+		public int getRowIndex() {
+			return m_row;
+		}
+
+		@Override
+		public RecordSchema getSchema() {
+			return m_schema;
+		}
+
+		@Nullable
+		private Vector find(String name) {
+			int index = m_schema.indexOf(name);
+			return index < 0 ? null : m_vectors[index];
+		}
+
+		@Nullable
+		private Vector find(RecordSchema.Column column) {
+			return column.getSchema() == m_schema ? m_vectors[column.getIndex()] : find(column.getName());
+		}
+
+		private Vector required(String name) {
+			Vector vector = find(name);
+			if(null == vector)
+				throw new IllegalArgumentException("No column " + name + " in the batch " + m_schema);
+			return vector;
+		}
+
+		private Vector required(RecordSchema.Column column) {
+			return column.getSchema() == m_schema ? m_vectors[column.getIndex()] : required(column.getName());
+		}
+
+		@Override
+		@Nullable
+		public Object get(String name) {
+			Vector vector = find(name);
+			return null == vector ? null : vector.get(m_row);
+		}
+
+		@Override
+		@Nullable
+		public Object get(RecordSchema.Column column) {
+			Vector vector = find(column);
+			return null == vector ? null : vector.get(m_row);
+		}
+
+		@Override
+		public void set(String name, @Nullable Object value) {
+			required(name).set(m_row, value);
+		}
+
+		@Override
+		public void set(RecordSchema.Column column, @Nullable Object value) {
+			required(column).set(m_row, value);
+		}
+
+		@Override
+		public boolean isNull(String name) {
+			Vector vector = find(name);
+			return null == vector || vector.isNull(m_row);
+		}
+
+		@Override
+		public boolean isNull(RecordSchema.Column column) {
+			Vector vector = find(column);
+			return null == vector || vector.isNull(m_row);
+		}
+
+		@Override
+		public long getLong(String name, long nullValue) {
+			Vector vector = find(name);
+			return null == vector || vector.isNull(m_row) ? nullValue : vector.getLong(m_row);
+		}
+
+		@Override
+		public long getLong(RecordSchema.Column column, long nullValue) {
+			Vector vector = find(column);
+			return null == vector || vector.isNull(m_row) ? nullValue : vector.getLong(m_row);
+		}
+
+		@Override
+		public int getInt(String name, int nullValue) {
+			Vector vector = find(name);
+			return null == vector || vector.isNull(m_row) ? nullValue : vector.getInt(m_row);
+		}
+
+		@Override
+		public int getInt(RecordSchema.Column column, int nullValue) {
+			Vector vector = find(column);
+			return null == vector || vector.isNull(m_row) ? nullValue : vector.getInt(m_row);
+		}
+
+		@Override
+		public double getDouble(String name, double nullValue) {
+			Vector vector = find(name);
+			return null == vector || vector.isNull(m_row) ? nullValue : vector.getDouble(m_row);
+		}
+
+		@Override
+		public double getDouble(RecordSchema.Column column, double nullValue) {
+			Vector vector = find(column);
+			return null == vector || vector.isNull(m_row) ? nullValue : vector.getDouble(m_row);
+		}
+
+		@Override
+		public void setLong(RecordSchema.Column column, long value) {
+			required(column).setLong(m_row, value);
+		}
+
+		@Override
+		public void setInt(RecordSchema.Column column, int value) {
+			required(column).setInt(m_row, value);
+		}
+
+		@Override
+		public void setDouble(RecordSchema.Column column, double value) {
+			required(column).setDouble(m_row, value);
+		}
+
+		/**
+		 * All columns of the batch: a row has a value, or null, for each.
+		 */
+		@Override
+		public Set<String> getAllColumnNames() {
+			return m_schema.getLowerCaseNames();
+		}
+
+		@Override
+		public JdbcAnyRecord asRecord() {
+			JdbcAnyRecord record = new JdbcAnyRecord(m_schema);
+			for(int i = 0; i < m_vectors.length; i++) {
+				Vector vector = m_vectors[i];
+				RecordSchema.Column column = m_schema.column(i);
+				if(vector.isNull(m_row)) {
+					record.set(column, null);
+					continue;
+				}
+				switch(m_schema.getStorage(i)) {
+					default:
+						record.set(column, vector.get(m_row));
+						break;
+
+					case INT:
+						record.setInt(column, vector.getInt(m_row));
+						break;
+
+					case LONG:
+						record.setLong(column, vector.getLong(m_row));
+						break;
+
+					case DOUBLE:
+						record.setDouble(column, vector.getDouble(m_row));
+						break;
+				}
+			}
+			return record;
+		}
+
+		@Override
+		public String toString() {
+			return "row " + m_row + " of " + m_schema;
+		}
+	}
+
+	/**
+	 * The values of one column. The typed getters return 0 for null rows; check {@link #isNull(int)} first.
+	 */
+	static public abstract class Vector {
+		/** A bit per row, set when its value is null. */
+		private long[] m_nulls;
+
+		Vector(int capacity) {
+			m_nulls = new long[(capacity + 63) >>> 6];
+		}
+
+		public boolean isNull(int row) {
+			return (m_nulls[row >>> 6] & (1L << row)) != 0;
+		}
+
+		void setNull(int row, boolean isNull) {
+			if(isNull)
+				m_nulls[row >>> 6] |= 1L << row;
+			else
+				m_nulls[row >>> 6] &= ~(1L << row);
+		}
+
+		void grow(int capacity) {
+			m_nulls = Arrays.copyOf(m_nulls, (capacity + 63) >>> 6);
+		}
+
+		/**
+		 * The value as an object, null for a null row.
+		 */
+		@Nullable
+		public abstract Object get(int row);
+
+		public long getLong(int row) {
+			return RuntimeConversions.convertToLong(get(row));
+		}
+
+		public int getInt(int row) {
+			return RuntimeConversions.convertToInt(get(row));
+		}
+
+		public double getDouble(int row) {
+			return RuntimeConversions.convertToDouble(get(row));
+		}
+
+		abstract void set(int row, @Nullable Object value);
+
+		void setLong(int row, long value) {
+			set(row, Long.valueOf(value));
+		}
+
+		void setInt(int row, int value) {
+			set(row, Integer.valueOf(value));
+		}
+
+		void setDouble(int row, double value) {
+			set(row, Double.valueOf(value));
+		}
+
+		void copy(int row, IAnyRecord record, RecordSchema.Column column) {
+			set(row, record.get(column));
+		}
+
+		/**
+		 * Adds, for each of the first rows, the hashCode its value has as an object (0 for null) to hashes.
+		 */
+		public abstract void addHashCodes(int[] hashes, int rows);
+
+		public boolean isDictionaryEncoded() {
+			return false;
+		}
+	}
+
+	/**
+	 * The value of a whole number, or an exception for anything else: a column stored unboxed cannot keep it.
+	 */
+	static long exactLong(Object value) {
+		if(value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+			return ((Number) value).longValue();
+		if(value instanceof BigDecimal) {
+			try {
+				return ((BigDecimal) value).longValueExact();
+			} catch(ArithmeticException x) {
+				//-- Has a fraction or is too big, below
+			}
+		}
+		throw new IllegalArgumentException("Cannot keep " + value + " (" + value.getClass().getName() + ") in a whole number column");
+	}
+
+	static private final class IntVector extends Vector {
+		private int[] m_values;
+
+		IntVector(int capacity) {
+			super(capacity);
+			m_values = new int[capacity];
+		}
+
+		@Override
+		void grow(int capacity) {
+			super.grow(capacity);
+			m_values = Arrays.copyOf(m_values, capacity);
+		}
+
+		@Override
+		@Nullable
+		public Object get(int row) {
+			return isNull(row) ? null : Integer.valueOf(m_values[row]);
+		}
+
+		@Override
+		public long getLong(int row) {
+			return m_values[row];
+		}
+
+		@Override
+		public int getInt(int row) {
+			return m_values[row];
+		}
+
+		@Override
+		public double getDouble(int row) {
+			return m_values[row];
+		}
+
+		@Override
+		void set(int row, @Nullable Object value) {
+			if(null == value) {
+				m_values[row] = 0;
+				setNull(row, true);
+				return;
+			}
+			long l = exactLong(value);
+			if(l != (int) l)
+				throw new IllegalArgumentException("Value " + l + " does not fit in an int column");
+			setInt(row, (int) l);
+		}
+
+		@Override
+		void setLong(int row, long value) {
+			if(value != (int) value)
+				throw new IllegalArgumentException("Value " + value + " does not fit in an int column");
+			setInt(row, (int) value);
+		}
+
+		@Override
+		void setInt(int row, int value) {
+			m_values[row] = value;
+			setNull(row, false);
+		}
+
+		@Override
+		void setDouble(int row, double value) {
+			set(row, Double.valueOf(value));
+		}
+
+		@Override
+		void copy(int row, IAnyRecord record, RecordSchema.Column column) {
+			if(record.isNull(column))
+				set(row, null);
+			else
+				setInt(row, record.getInt(column, 0));
+		}
+
+		@Override
+		public void addHashCodes(int[] hashes, int rows) {
+			int[] values = m_values;
+			for(int row = 0; row < rows; row++) {
+				hashes[row] += values[row];						// Integer.hashCode; null rows hold 0
+			}
+		}
+	}
+
+	static private final class LongVector extends Vector {
+		private long[] m_values;
+
+		LongVector(int capacity) {
+			super(capacity);
+			m_values = new long[capacity];
+		}
+
+		@Override
+		void grow(int capacity) {
+			super.grow(capacity);
+			m_values = Arrays.copyOf(m_values, capacity);
+		}
+
+		@Override
+		@Nullable
+		public Object get(int row) {
+			return isNull(row) ? null : Long.valueOf(m_values[row]);
+		}
+
+		@Override
+		public long getLong(int row) {
+			return m_values[row];
+		}
+
+		@Override
+		public int getInt(int row) {
+			return (int) m_values[row];
+		}
+
+		@Override
+		public double getDouble(int row) {
+			return m_values[row];
+		}
+
+		@Override
+		void set(int row, @Nullable Object value) {
+			if(null == value) {
+				m_values[row] = 0;
+				setNull(row, true);
+				return;
+			}
+			setLong(row, exactLong(value));
+		}
+
+		@Override
+		void setLong(int row, long value) {
+			m_values[row] = value;
+			setNull(row, false);
+		}
+
+		@Override
+		void setInt(int row, int value) {
+			setLong(row, value);
+		}
+
+		@Override
+		void setDouble(int row, double value) {
+			set(row, Double.valueOf(value));
+		}
+
+		@Override
+		void copy(int row, IAnyRecord record, RecordSchema.Column column) {
+			if(record.isNull(column))
+				set(row, null);
+			else
+				setLong(row, record.getLong(column, 0));
+		}
+
+		@Override
+		public void addHashCodes(int[] hashes, int rows) {
+			long[] values = m_values;
+			for(int row = 0; row < rows; row++) {
+				hashes[row] += Long.hashCode(values[row]);
+			}
+		}
+	}
+
+	static private final class DoubleVector extends Vector {
+		private double[] m_values;
+
+		DoubleVector(int capacity) {
+			super(capacity);
+			m_values = new double[capacity];
+		}
+
+		@Override
+		void grow(int capacity) {
+			super.grow(capacity);
+			m_values = Arrays.copyOf(m_values, capacity);
+		}
+
+		@Override
+		@Nullable
+		public Object get(int row) {
+			return isNull(row) ? null : Double.valueOf(m_values[row]);
+		}
+
+		@Override
+		public long getLong(int row) {
+			return (long) m_values[row];
+		}
+
+		@Override
+		public int getInt(int row) {
+			return (int) m_values[row];
+		}
+
+		@Override
+		public double getDouble(int row) {
+			return m_values[row];
+		}
+
+		@Override
+		void set(int row, @Nullable Object value) {
+			if(null == value) {
+				m_values[row] = 0;
+				setNull(row, true);
+				return;
+			}
+			if(!(value instanceof Number))
+				throw new IllegalArgumentException("Cannot keep " + value + " (" + value.getClass().getName() + ") in a double column");
+			setDouble(row, ((Number) value).doubleValue());
+		}
+
+		@Override
+		void setLong(int row, long value) {
+			setDouble(row, value);
+		}
+
+		@Override
+		void setInt(int row, int value) {
+			setDouble(row, value);
+		}
+
+		@Override
+		void setDouble(int row, double value) {
+			m_values[row] = value;
+			setNull(row, false);
+		}
+
+		@Override
+		void copy(int row, IAnyRecord record, RecordSchema.Column column) {
+			if(record.isNull(column))
+				set(row, null);
+			else
+				setDouble(row, record.getDouble(column, 0));
+		}
+
+		@Override
+		public void addHashCodes(int[] hashes, int rows) {
+			double[] values = m_values;
+			for(int row = 0; row < rows; row++) {
+				if(!isNull(row))
+					hashes[row] += Double.hashCode(values[row]);
+			}
+		}
+	}
+
+	/**
+	 * Strings as codes into a dictionary, until a value is not a string or there are too many distinct ones; from
+	 * then on the values as they are.
+	 */
+	static private final class ObjectVector extends Vector {
+		/** The values once the vector is no longer dictionary encoded, else null. */
+		@Nullable
+		private Object[] m_plain;
+
+		private int[] m_codes;
+
+		private final List<String> m_dictionary = new ArrayList<>();
+
+		private int[] m_dictionaryHashes = new int[16];
+
+		private final HashMap<String, Integer> m_codeOf = new HashMap<>();
+
+		/** One past the highest row set. */
+		private int m_rows;
+
+		ObjectVector(int capacity) {
+			super(capacity);
+			m_codes = new int[capacity];
+		}
+
+		@Override
+		void grow(int capacity) {
+			super.grow(capacity);
+			Object[] plain = m_plain;
+			if(null != plain)
+				m_plain = Arrays.copyOf(plain, capacity);
+			else
+				m_codes = Arrays.copyOf(m_codes, capacity);
+		}
+
+		@Override
+		public boolean isDictionaryEncoded() {
+			return null == m_plain;
+		}
+
+		@Override
+		@Nullable
+		public Object get(int row) {
+			if(isNull(row))
+				return null;
+			Object[] plain = m_plain;
+			return null != plain ? plain[row] : m_dictionary.get(m_codes[row]);
+		}
+
+		@Override
+		void set(int row, @Nullable Object value) {
+			m_rows = Math.max(m_rows, row + 1);
+			setNull(row, null == value);
+			Object[] plain = m_plain;
+			if(null == plain) {
+				if(null == value)
+					return;
+				if(value instanceof String) {
+					String s = (String) value;
+					Integer code = m_codeOf.get(s);
+					if(null != code) {
+						m_codes[row] = code;
+						return;
+					}
+					if(m_dictionary.size() < DICTIONARY_LIMIT) {
+						int newCode = m_dictionary.size();
+						m_dictionary.add(s);
+						m_codeOf.put(s, newCode);
+						if(newCode == m_dictionaryHashes.length)
+							m_dictionaryHashes = Arrays.copyOf(m_dictionaryHashes, newCode * 2);
+						m_dictionaryHashes[newCode] = s.hashCode();
+						m_codes[row] = newCode;
+						return;
+					}
+				}
+				plain = decode();
+			}
+			plain[row] = value;
+		}
+
+		/**
+		 * Stops the dictionary encoding.
+		 */
+		private Object[] decode() {
+			Object[] plain = new Object[m_codes.length];
+			for(int row = 0; row < m_rows; row++) {
+				if(!isNull(row))
+					plain[row] = m_dictionary.get(m_codes[row]);
+			}
+			m_plain = plain;
+			m_codes = new int[0];
+			m_dictionary.clear();
+			m_codeOf.clear();
+			m_dictionaryHashes = new int[0];
+			return plain;
+		}
+
+		@Override
+		public void addHashCodes(int[] hashes, int rows) {
+			Object[] plain = m_plain;
+			if(null != plain) {
+				for(int row = 0; row < rows; row++) {
+					hashes[row] += Objects.hashCode(plain[row]);
+				}
+				return;
+			}
+			int[] codes = m_codes;
+			int[] dictionaryHashes = m_dictionaryHashes;
+			for(int row = 0; row < rows; row++) {
+				if(!isNull(row))
+					hashes[row] += dictionaryHashes[codes[row]];
+			}
+		}
+	}
+}
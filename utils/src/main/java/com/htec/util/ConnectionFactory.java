@@ -0,0 +1,15 @@
+package com.htec.util;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Source of database connections. The caller owns what it gets and must close it.
+ */
+@NonNullByDefault
+@FunctionalInterface
+public interface ConnectionFactory {
+	Connection getConnection() throws SQLException;
+}
@@ -0,0 +1,390 @@
+package com.htec.util;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small bounded pool of connections, meant to be leased for one batch of work and returned by closing the
+ * connection it hands out. At most maxSize connections are open; when all are leased, getConnection waits up to
+ * maxWait for one to come back. How long leases waited is kept, so an undersized pool shows in {@link #getStatus()}.
+ *
+ * <p>Each connection caches its prepared statements by SQL: closing one only clears it, and preparing the same
+ * SQL on a later lease returns it again. A connection is validated before it is leased again when an SQLException
+ * went through it or when it was idle for a while; one that fails is closed and replaced. On return uncommitted
+ * work is rolled back and auto commit is switched back on.</p>
+ */
+@NonNullByDefault
+final public class ConnectionPool implements ConnectionFactory, AutoCloseable {
+	static private final int STATEMENT_CACHE_SIZE = 32;
+
+	static private final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+	static private final long VALIDATE_AFTER_IDLE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+	private final ConnectionFactory m_connectionFactory;
+
+	private final int m_maxSize;
+
+	private final long m_maxWaitNanos;
+
+	/** Most recently returned first, so that the warmest connections are used; guarded by this. */
+	private final ArrayDeque<PooledConnection> m_idle = new ArrayDeque<>();
+
+	/** Open connections, idle or leased; guarded by this. */
+	private int m_size;
+
+	private boolean m_closed;
+
+	//-- Metrics, guarded by this
+	private long m_leaseCount;
+
+	private long m_waitedCount;
+
+	private long m_totalWaitNanos;
+
+	private long m_maxWaitedNanos;
+
+	private long m_timeoutCount;
+
+	private long m_replacedCount;
+
+	public ConnectionPool(ConnectionFactory connectionFactory, int maxSize, Duration maxWait) {
+		if(maxSize < 1)
+			throw new IllegalArgumentException("The pool needs at least one connection");
+		m_connectionFactory = connectionFactory;
+		m_maxSize = maxSize;
+		m_maxWaitNanos = maxWait.toNanos();
+	}
+
+	/**
+	 * Lease a connection; close it to return it.
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		long start = System.nanoTime();
+		PooledConnection pc;
+		boolean waited = false;
+		synchronized(this) {
+			for(;;) {
+				if(m_closed)
+					throw new SQLException("The connection pool is closed");
+				pc = m_idle.pollFirst();
+				if(null != pc)
+					break;
+				if(m_size < m_maxSize) {
+					m_size++;
+					break;
+				}
+				long left = m_maxWaitNanos - (System.nanoTime() - start);
+				if(left <= 0) {
+					m_timeoutCount++;
+					throw new SQLTimeoutException("No connection became free within " + TimeUnit.NANOSECONDS.toMillis(m_maxWaitNanos) + "ms; all " + m_maxSize + " are in use");
+				}
+				waited = true;
+				try {
+					TimeUnit.NANOSECONDS.timedWait(this, left);
+				} catch(InterruptedException x) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted while waiting for a connection", x);
+				}
+			}
+		}
+
+		//-- Open or validate outside the lock; on failure the slot is given up
+		try {
+			if(null == pc) {
+				pc = new PooledConnection(m_connectionFactory.getConnection());
+			} else if(pc.m_suspect || System.nanoTime() - pc.m_returnedAt > VALIDATE_AFTER_IDLE_NANOS) {
+				if(!isValid(pc)) {
+					pc.closePhysical();
+					pc = new PooledConnection(m_connectionFactory.getConnection());
+					synchronized(this) {
+						m_replacedCount++;
+					}
+				}
+			}
+		} catch(SQLException | RuntimeException x) {
+			synchronized(this) {
+				m_size--;
+				notifyAll();
+			}
+			throw x;
+		}
+
+		long waitNanos = System.nanoTime() - start;
+		synchronized(this) {
+			m_leaseCount++;
+			if(waited) {
+				m_waitedCount++;
+			}
+			m_totalWaitNanos += waitNanos;
+			m_maxWaitedNanos = Math.max(m_maxWaitedNanos, waitNanos);
+		}
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, new LeaseHandler(pc));
+	}
+
+	static private boolean isValid(PooledConnection pc) {
+		try {
+			return pc.m_connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+		} catch(SQLException x) {
+			return false;
+		}
+	}
+
+	/**
+	 * Called when a lease closes its connection.
+	 */
+	private void release(PooledConnection pc) {
+		boolean keep;
+		try {
+			Connection connection = pc.m_connection;
+			if(!connection.getAutoCommit()) {
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+			keep = !pc.m_suspect || isValid(pc);
+			pc.m_suspect = false;
+		} catch(SQLException x) {
+			keep = false;
+		}
+		pc.m_returnedAt = System.nanoTime();
+		synchronized(this) {
+			if(keep && !m_closed) {
+				m_idle.addFirst(pc);
+			} else {
+				m_size--;
+				keep = false;
+			}
+			notifyAll();
+		}
+		if(!keep) {
+			pc.closePhysical();
+		}
+	}
+
+	/**
+	 * Close the idle connections; leased ones are closed when they are returned.
+	 */
+	@Override
+	public void close() {
+		List<PooledConnection> idle;
+		synchronized(this) {
+			m_closed = true;
+			idle = new ArrayList<>(m_idle);
+			m_size -= m_idle.size();
+			m_idle.clear();
+			notifyAll();
+		}
+		idle.forEach(PooledConnection::closePhysical);
+	}
+
+	public synchronized int getOpenCount() {
+		return m_size;
+	}
+
+	public synchronized int getLeasedCount() {
+		return m_size - m_idle.size();
+	}
+
+	public synchronized long getLeaseCount() {
+		return m_leaseCount;
+	}
+
+	public synchronized double getAverageWaitMillis() {
+		return m_leaseCount == 0 ? 0d : m_totalWaitNanos / 1_000_000d / m_leaseCount;
+	}
+
+	public synchronized double getMaxWaitMillis() {
+		return m_maxWaitedNanos / 1_000_000d;
+	}
+
+	public synchronized long getTimeoutCount() {
+		return m_timeoutCount;
+	}
+
+	public synchronized String getStatus() {
+		return m_size + " of max " + m_maxSize + " connections open, " + (m_size - m_idle.size()) + " leased; " + m_leaseCount + " leases, "
+			+ m_waitedCount + " had to wait, avg wait " + String.format("%.2f", getAverageWaitMillis()) + "ms, max " + String.format("%.2f", getMaxWaitMillis()) + "ms, "
+			+ m_timeoutCount + " timed out, " + m_replacedCount + " replaced after failing validation";
+	}
+
+	/**
+	 * A physical connection with its statement cache.
+	 */
+	static private final class PooledConnection {
+		private final Connection m_connection;
+
+		/** By SQL, least recently used first. Only used by the lease, which is one thread at a time. */
+		private final Map<String, PreparedStatement> m_statements = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if(size() <= STATEMENT_CACHE_SIZE)
+					return false;
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+
+		/** Set when an SQLException went through the connection: validate it before it is used again. */
+		private volatile boolean m_suspect;
+
+		private long m_returnedAt = System.nanoTime();
+
+		PooledConnection(Connection connection) {
+			m_connection = connection;
+		}
+
+		PreparedStatement prepare(String sql) throws SQLException {
+			PreparedStatement ps = m_statements.get(sql);
+			if(null == ps) {
+				ps = m_connection.prepareStatement(sql);
+				m_statements.put(sql, ps);
+			}
+			return ps;
+		}
+
+		void closePhysical() {
+			m_statements.values().forEach(PooledConnection::closeQuietly);
+			m_statements.clear();
+			try {
+				m_connection.close();
+			} catch(SQLException x) {
+				//-- It is gone either way
+			}
+		}
+
+		static private void closeQuietly(PreparedStatement ps) {
+			try {
+				ps.close();
+			} catch(SQLException x) {
+				//-- Dropped from the cache either way
+			}
+		}
+	}
+
+	/**
+	 * The connection a lease sees: closing it returns the physical connection to the pool, after which it cannot
+	 * be used anymore; prepareStatement(sql) uses the statement cache.
+	 */
+	private final class LeaseHandler implements InvocationHandler {
+		private final PooledConnection m_pooled;
+
+		private boolean m_closed;
+
+		LeaseHandler(PooledConnection pooled) {
+			m_pooled = pooled;
+		}
+
+		@Override
+		@Nullable
+		public Object invoke(Object proxy, Method method, @Nullable Object[] args) throws Throwable {
+			switch(method.getName()) {
+				default:
+					break;
+
+				case "close":
+					if(!m_closed) {
+						m_closed = true;
+						release(m_pooled);
+					}
+					return null;
+
+				case "isClosed":
+					return m_closed;
+
+				case "toString":
+					return "pooled " + m_pooled.m_connection;
+
+				case "hashCode":
+					return System.identityHashCode(proxy);
+
+				case "equals":
+					return null != args && proxy == args[0];
+			}
+			if(m_closed)
+				throw new SQLException("The connection was returned to the pool");
+			if(method.getName().equals("prepareStatement") && null != args && args.length == 1) {
+				PreparedStatement ps = m_pooled.prepare((String) args[0]);
+				return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] {PreparedStatement.class}, new CachedStatementHandler(m_pooled, ps));
+			}
+			return invokeOn(m_pooled, m_pooled.m_connection, method, args);
+		}
+	}
+
+	/**
+	 * A cached statement as a lease sees it: close clears it instead.
+	 */
+	static private final class CachedStatementHandler implements InvocationHandler {
+		private final PooledConnection m_pooled;
+
+		private final PreparedStatement m_statement;
+
+		private boolean m_closed;
+
+		CachedStatementHandler(PooledConnection pooled, PreparedStatement statement) {
+			m_pooled = pooled;
+			m_statement = statement;
+		}
+
+		@Override
+		@Nullable
+		public Object invoke(Object proxy, Method method, @Nullable Object[] args) throws Throwable {
+			switch(method.getName()) {
+				default:
+					break;
+
+				case "close":
+					if(!m_closed) {
+						m_closed = true;
+						m_statement.clearParameters();
+						m_statement.clearBatch();
+					}
+					return null;
+
+				case "isClosed":
+					return m_closed;
+
+				case "hashCode":
+					return System.identityHashCode(proxy);
+
+				case "equals":
+					return null != args && proxy == args[0];
+			}
+			if(m_closed)
+				throw new SQLException("The statement is closed");
+			return invokeOn(m_pooled, m_statement, method, args);
+		}
+	}
+
+	/**
+	 * Call the real method, marking the connection suspect when it throws an SQLException.
+	 */
+	@Nullable
+	static private Object invokeOn(PooledConnection pooled, Object target, Method method, @Nullable Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch(InvocationTargetException x) {
+			Throwable cause = x.getCause();
+			if(cause instanceof SQLException) {
+				pooled.m_suspect = true;
+			}
+			throw null == cause ? x : cause;
+		}
+	}
+}
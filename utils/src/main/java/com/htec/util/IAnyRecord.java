@@ -0,0 +1,58 @@
+package com.htec.util;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.util.Set;
+
+/**
+ * The values of one row, by column name or by {@link RecordSchema.Column}: a {@link JdbcAnyRecord}, or a row of a
+ * {@link ColumnarBatch}. Tasks that work on single records should use this, so that they run on either.
+ */
+@NonNullByDefault
+public interface IAnyRecord {
+	RecordSchema getSchema();
+
+	@Nullable
+	Object get(String name);
+
+	@Nullable
+	Object get(RecordSchema.Column column);
+
+	void set(String name, @Nullable Object value);
+
+	void set(RecordSchema.Column column, @Nullable Object value);
+
+	boolean isNull(String name);
+
+	boolean isNull(RecordSchema.Column column);
+
+	long getLong(String name, long nullValue);
+
+	long getLong(RecordSchema.Column column, long nullValue);
+
+	int getInt(String name, int nullValue);
+
+	int getInt(RecordSchema.Column column, int nullValue);
+
+	double getDouble(String name, double nullValue);
+
+	double getDouble(RecordSchema.Column column, double nullValue);
+
+	void setLong(RecordSchema.Column column, long value);
+
+	void setInt(RecordSchema.Column column, int value);
+
+	void setDouble(RecordSchema.Column column, double value);
+
+	/**
+	 * The lower case names of the columns that have a value.
+	 */
+	Set<String> getAllColumnNames();
+
+	/**
+	 * This row as a record that stands on its own: the record itself, or a copy of a batch row or pooled record, to
+	 * keep after the batch is gone.
+	 */
+	JdbcAnyRecord asRecord();
+}
@@ -0,0 +1,254 @@
+package com.htec.util;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A durable set of done ids, kept as ranges in a memory-mapped file, so that a run that died can skip what was
+ * done already. The file holds a header and then (first, last) pairs of longs; the header's entry count is only
+ * raised after the new entries are forced to disk, so after a crash the file holds whole entries only. Opening an
+ * existing file merges its ranges into a new file, which then replaces it by an atomic rename, so a crash while
+ * opening leaves either the old or the compacted checkpoint.
+ *
+ * <p>Adding is meant for whole batches: the ids are sorted and turned into ranges, and both the file and the
+ * in-memory ranges get one update per batch.</p>
+ */
+@NonNullByDefault
+final public class IdRangeCheckpoint implements AutoCloseable {
+	static private final int MAGIC = 0x49445243;						// "IDRC"
+
+	static private final int VERSION = 1;
+
+	static private final int HEADER_SIZE = 16;
+
+	static private final int ENTRY_SIZE = 16;
+
+	static private final int COUNT_OFFSET = 8;
+
+	/** The file grows by this many entries at a time. */
+	static private final int GROW_ENTRIES = 64 * 1024;
+
+	private final Path m_file;
+
+	private final FileChannel m_channel;
+
+	private MappedByteBuffer m_map;
+
+	/** Entries in the file. */
+	private long m_entryCount;
+
+	/** first -> last, merged so that no two touch. */
+	private final TreeMap<Long, Long> m_ranges = new TreeMap<>();
+
+	private long m_idCount;
+
+	private IdRangeCheckpoint(Path file, FileChannel channel) throws IOException {
+		m_file = file;
+		m_channel = channel;
+		m_map = map(GROW_ENTRIES);
+	}
+
+	/**
+	 * Open the checkpoint in file, creating it when it does not exist.
+	 */
+	static public IdRangeCheckpoint open(Path file) throws IOException {
+		List<long[]> existing = read(file);
+		if(!existing.isEmpty()) {
+			compact(file, existing);
+		}
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			IdRangeCheckpoint checkpoint = new IdRangeCheckpoint(file, channel);
+			for(long[] range : existing) {
+				checkpoint.merge(range[0], range[1]);
+			}
+			if(existing.isEmpty()) {
+				checkpoint.writeRanges();									// A new file: only the header
+			} else {
+				checkpoint.m_entryCount = checkpoint.m_ranges.size();		// What compact wrote
+			}
+			return checkpoint;
+		} catch(IOException | RuntimeException x) {
+			channel.close();
+			throw x;
+		}
+	}
+
+	/**
+	 * Write the merged ranges to a file next to file, and rename that over file.
+	 */
+	static private void compact(Path file, List<long[]> ranges) throws IOException {
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			IdRangeCheckpoint compacted = new IdRangeCheckpoint(temp, channel);
+			for(long[] range : ranges) {
+				compacted.merge(range[0], range[1]);
+			}
+			compacted.writeRanges();
+		}
+		Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * The ranges in a checkpoint file, as far as they were completely written.
+	 */
+	static private List<long[]> read(Path file) throws IOException {
+		List<long[]> ranges = new ArrayList<>();
+		if(!Files.exists(file) || Files.size(file) < HEADER_SIZE)
+			return ranges;
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(map.getInt(0) != MAGIC || map.getInt(4) != VERSION)
+				throw new IOException(file + " is not a checkpoint file");
+			long count = map.getLong(COUNT_OFFSET);
+			if(count < 0 || HEADER_SIZE + count * ENTRY_SIZE > channel.size())
+				throw new IOException(file + " is damaged: " + count + " entries do not fit");
+			for(int i = 0; i < count; i++) {
+				int at = HEADER_SIZE + i * ENTRY_SIZE;
+				ranges.add(new long[] {map.getLong(at), map.getLong(at + 8)});
+			}
+		}
+		return ranges;
+	}
+
+	private MappedByteBuffer map(long entries) throws IOException {
+		return m_channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + entries * ENTRY_SIZE);
+	}
+
+	public synchronized boolean contains(long id) {
+		Map.Entry<Long, Long> range = m_ranges.floorEntry(id);
+		return null != range && range.getValue() >= id;
+	}
+
+	/**
+	 * Durably record ids as done; returns when they are on disk.
+	 */
+	public synchronized void add(long[] ids) throws IOException {
+		if(ids.length == 0)
+			return;
+		long[] sorted = ids.clone();
+		Arrays.sort(sorted);
+		List<long[]> ranges = new ArrayList<>();
+		long first = sorted[0];
+		long last = first;
+		for(int i = 1; i < sorted.length; i++) {
+			long id = sorted[i];
+			if(id > last + 1) {
+				ranges.add(new long[] {first, last});
+				first = id;
+			}
+			last = Math.max(last, id);
+		}
+		ranges.add(new long[] {first, last});
+
+		ensureCapacity(m_entryCount + ranges.size());
+		int at = (int) (HEADER_SIZE + m_entryCount * ENTRY_SIZE);
+		for(long[] range : ranges) {
+			m_map.putLong(at, range[0]);
+			m_map.putLong(at + 8, range[1]);
+			at += ENTRY_SIZE;
+		}
+		m_map.force();												// Entries first, then the count that makes them valid
+		m_entryCount += ranges.size();
+		m_map.putLong(COUNT_OFFSET, m_entryCount);
+		m_map.force();
+
+		for(long[] range : ranges) {
+			merge(range[0], range[1]);
+		}
+	}
+
+	private void ensureCapacity(long entries) throws IOException {
+		long capacity = (m_map.capacity() - HEADER_SIZE) / ENTRY_SIZE;
+		if(entries <= capacity)
+			return;
+		long size = Math.max(entries, capacity + GROW_ENTRIES);
+		if(HEADER_SIZE + size * ENTRY_SIZE > Integer.MAX_VALUE)
+			throw new IOException(m_file + " is full");
+		m_map = map(size);
+	}
+
+	private void merge(long first, long last) {
+		Map.Entry<Long, Long> before = m_ranges.floorEntry(first);
+		if(null != before && before.getValue() >= first - 1) {
+			if(before.getValue() >= last)
+				return;
+			first = before.getKey();
+			m_idCount -= before.getValue() - before.getKey() + 1;
+			m_ranges.remove(first);
+		}
+		for(;;) {
+			Map.Entry<Long, Long> after = m_ranges.ceilingEntry(first);
+			if(null == after || after.getKey() > last + 1)
+				break;
+			last = Math.max(last, after.getValue());
+			m_idCount -= after.getValue() - after.getKey() + 1;
+			m_ranges.remove(after.getKey());
+		}
+		m_ranges.put(first, last);
+		m_idCount += last - first + 1;
+	}
+
+	/**
+	 * Write the header and the merged ranges into a file that has no entries yet.
+	 */
+	private void writeRanges() throws IOException {
+		m_map.putLong(COUNT_OFFSET, 0);
+		m_map.putInt(0, MAGIC);
+		m_map.putInt(4, VERSION);
+		m_map.force();
+		ensureCapacity(m_ranges.size());
+		int at = HEADER_SIZE;
+		for(Map.Entry<Long, Long> range : m_ranges.entrySet()) {
+			m_map.putLong(at, range.getKey());
+			m_map.putLong(at + 8, range.getValue());
+			at += ENTRY_SIZE;
+		}
+		m_map.force();
+		m_entryCount = m_ranges.size();
+		m_map.putLong(COUNT_OFFSET, m_entryCount);
+		m_map.force();
+	}
+
+	public synchronized long getIdCount() {
+		return m_idCount;
+	}
+
+	public synchronized int getRangeCount() {
+		return m_ranges.size();
+	}
+
+	public Path getFile() {
+		return m_file;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		m_channel.close();
+	}
+
+	/**
+	 * Close and remove the file, for when the run it belonged to completed.
+	 */
+	public synchronized void delete() throws IOException {
+		close();
+		Files.deleteIfExists(m_file);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return m_idCount + " ids in " + m_ranges.size() + " ranges in " + m_file;
+	}
+}
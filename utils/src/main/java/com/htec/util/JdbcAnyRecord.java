@@ -25,76 +25,105 @@
 package com.htec.util;
 
 import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
 
-import java.math.BigDecimal;
 import java.sql.*;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
 /**
- * EXPERIMENTAL A record read from the database. Stores all (usable) attributes as a map of values.
+ * EXPERIMENTAL A record read from the database. The values are kept in an array indexed by the columns of a
+ * {@link RecordSchema}, which all records read from the same result share; values set for columns that are
+ * not in the schema go to a small map of their own. Whole number and floating point columns are kept unboxed,
+ * see {@link RecordSchema.Storage}; read them with getInt, getLong and getDouble to avoid boxing them again.
  *
  * @author <a href="mailto:jal@etc.to">Frits Jalvingh</a>
  * Created on Apr 26, 2010
  */
-public class JdbcAnyRecord {
+public class JdbcAnyRecord implements IAnyRecord {
 	static private final Object NULL_VAL = new Object();
 
-	private Map<String, Object> m_valueMap = new HashMap<>();
+	/** Marks a value that is in m_primitives. */
+	static private final Object PRIMITIVE_VAL = new Object();
 
-	//	private String m_tableName;
+	static private final long[] NO_PRIMITIVES = new long[0];
 
+	private RecordSchema m_schema;
+
+	/** The values by schema column index: null when not set, NULL_VAL when set to null. */
+	private Object[] m_values;
+
+	/** The INT, LONG and DOUBLE values by their primitive index in the schema; doubles as their raw bits. */
+	private long[] m_primitives;
+
+	/** Values of columns that are not in the schema, by lower case name. */
+	@Nullable
+	private Map<String, Object> m_extraValues;
+
+	/** The pool this record was leased from, and whether it is out on lease; kept by {@link RecordPool}. */
+	@Nullable
+	RecordPool m_pool;
+
+	boolean m_leased;
+
+	public JdbcAnyRecord() {
+		this(RecordSchema.of());
+	}
+
+	public JdbcAnyRecord(RecordSchema schema) {
+		m_schema = schema;
+		m_values = new Object[schema.size()];
+		m_primitives = newPrimitives(schema);
+	}
+
+	static private long[] newPrimitives(RecordSchema schema) {
+		int count = schema.getPrimitiveCount();
+		return count == 0 ? NO_PRIMITIVES : new long[count];
+	}
+
+	/**
+	 * Reads the row with a schema made for this result set only; readers of many rows should make the
+	 * schema once and use {@link #initFromRS(RecordSchema, ResultSet)}.
+	 */
 	public void initFromRS(String tablename, ResultSetMetaData rsm, @NonNull ResultSet rs) throws SQLException {
-		m_valueMap.clear();
-		//		m_tableName = tablename;
+		initFromRS(RecordSchema.of(tablename, rsm), rs);
+	}
+
+	public void initFromRS(RecordSchema schema, @NonNull ResultSet rs) throws SQLException {
+		reset(schema);
+		Object[] values = m_values;
+		long[] primitives = m_primitives;
 		Exception error = null;
-		for(int i = 1, len = rsm.getColumnCount(); i <= len; i++) {
-			String name = rsm.getColumnName(i);
-			int type = rsm.getColumnType(i);
+		for(int i = 0, len = schema.size(); i < len; i++) {
 			try {
-				switch(type) {
+				switch(schema.getStorage(i)) {
 					default:
-						throw new IllegalStateException("Cannot handle SQLType=" + type + " for column " + tablename + "." + name);
-					case Types.NUMERIC:
-					case Types.INTEGER:
-					case Types.SMALLINT:
-					case Types.DECIMAL:
-					case Types.FLOAT:
-					case Types.DOUBLE:
-					case Types.BIGINT:
-						BigDecimal bd = rs.getBigDecimal(i);
-						set(name, bd);
-						break;
-					case Types.VARCHAR:
-					case Types.CHAR:
-						set(name, rs.getString(i));
+						Object value = readObject(schema, i, rs);
+						values[i] = value == null ? NULL_VAL : value;
 						break;
 
-					case Types.ROWID:
-						set(name, rs.getString(i));
+					case INT:
+						primitives[schema.getPrimitiveIndex(i)] = rs.getInt(i + 1);
+						values[i] = rs.wasNull() ? NULL_VAL : PRIMITIVE_VAL;
 						break;
 
-					case Types.DATE:
-					case Types.TIMESTAMP:
-						Timestamp ts = rs.getTimestamp(i);
-						if(ts == null)
-							set(name, NULL_VAL);
-						else
-							set(name, new java.util.Date(ts.getTime()));
+					case LONG:
+						primitives[schema.getPrimitiveIndex(i)] = rs.getLong(i + 1);
+						values[i] = rs.wasNull() ? NULL_VAL : PRIMITIVE_VAL;
 						break;
-					case Types.CLOB:
-						Clob clob = rs.getClob(i);
-						if(clob == null)
-							set(name, NULL_VAL);
-						else
-							set(name, clob);
+
+					case DOUBLE:
+						primitives[schema.getPrimitiveIndex(i)] = Double.doubleToRawLongBits(rs.getDouble(i + 1));
+						values[i] = rs.wasNull() ? NULL_VAL : PRIMITIVE_VAL;
 						break;
 				}
 			}catch(Exception ex) {
 				//we register first exception that we encounter and continue reading... and throw at the end.
 				if(null == error) {
-					error = new IllegalStateException("Error in reading data for column " + tablename + "." + name + "\n" + ex.getLocalizedMessage(), ex);
+					error = new IllegalStateException("Error in reading data for column " + schema.getTableName() + "." + schema.getName(i) + "\n" + ex.getLocalizedMessage(), ex);
 				}
 			}
 		}
@@ -108,20 +137,346 @@ public class JdbcAnyRecord {
 		}
 	}
 
-	public void set(String name, Object bd) {
-		if(bd == null)
-			m_valueMap.put(name.toLowerCase(), NULL_VAL);
+	/**
+	 * Removes all values, and makes the record one of the schema; the arrays are kept when the schema has the same
+	 * columns, and then true is returned.
+	 */
+	boolean reset(RecordSchema schema) {
+		boolean kept = m_schema.hasSameColumns(schema);
+		if(kept) {
+			Arrays.fill(m_values, null);
+		} else {
+			m_values = new Object[schema.size()];
+			m_primitives = newPrimitives(schema);
+		}
+		m_schema = schema;
+		m_extraValues = null;
+		return kept;
+	}
+
+	/**
+	 * A record of the same schema with the same values, that is not pooled.
+	 */
+	public JdbcAnyRecord copy() {
+		JdbcAnyRecord copy = new JdbcAnyRecord(m_schema);
+		System.arraycopy(m_values, 0, copy.m_values, 0, m_values.length);
+		System.arraycopy(m_primitives, 0, copy.m_primitives, 0, m_primitives.length);
+		Map<String, Object> extraValues = m_extraValues;
+		if(null != extraValues)
+			copy.m_extraValues = new LinkedHashMap<>(extraValues);
+		return copy;
+	}
+
+	@Nullable
+	static private Object readObject(RecordSchema schema, int index, ResultSet rs) throws SQLException {
+		int type = schema.getSqlType(index);
+		switch(type) {
+			default:
+				throw new IllegalStateException("Cannot handle SQLType=" + type + " for column " + schema.getTableName() + "." + schema.getName(index));
+			case Types.NUMERIC:
+			case Types.INTEGER:
+			case Types.SMALLINT:
+			case Types.DECIMAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+			case Types.BIGINT:
+				return rs.getBigDecimal(index + 1);
+			case Types.VARCHAR:
+			case Types.CHAR:
+				return rs.getString(index + 1);
+
+			case Types.ROWID:
+				return rs.getString(index + 1);
+
+			case Types.DATE:
+			case Types.TIMESTAMP:
+				Timestamp ts = rs.getTimestamp(index + 1);
+				return ts == null ? null : new java.util.Date(ts.getTime());
+			case Types.CLOB:
+				return rs.getClob(index + 1);
+		}
+	}
+
+	@Override
+	public RecordSchema getSchema() {
+		return m_schema;
+	}
+
+	@Override
+	public void set(String name, @Nullable Object bd) {
+		int index = m_schema.indexOf(name);
+		if(index >= 0) {
+			setAt(index, bd);
+			return;
+		}
+		Map<String, Object> extraValues = m_extraValues;
+		if(null == extraValues)
+			m_extraValues = extraValues = new LinkedHashMap<>();
+		extraValues.put(name.toLowerCase(), bd == null ? NULL_VAL : bd);
+	}
+
+	@Override
+	public void set(RecordSchema.Column column, @Nullable Object value) {
+		if(column.getSchema() == m_schema)
+			setAt(column.getIndex(), value);
 		else
-			m_valueMap.put(name.toLowerCase(), bd);
+			set(column.getName(), value);
+	}
+
+	/**
+	 * Sets a whole number; unboxed when the column is stored as a number.
+	 */
+	@Override
+	public void setLong(RecordSchema.Column column, long value) {
+		if(column.getSchema() != m_schema) {
+			set(column.getName(), Long.valueOf(value));
+			return;
+		}
+		int index = column.getIndex();
+		switch(m_schema.getStorage(index)) {
+			default:
+				setAt(index, Long.valueOf(value));
+				break;
+
+			case INT:
+				if(value != (int) value)
+					throw new IllegalArgumentException("Value " + value + " does not fit in the int column " + column.getName());
+				setPrimitive(index, value);
+				break;
+
+			case LONG:
+				setPrimitive(index, value);
+				break;
+
+			case DOUBLE:
+				setPrimitive(index, Double.doubleToRawLongBits(value));
+				break;
+		}
+	}
+
+	@Override
+	public void setInt(RecordSchema.Column column, int value) {
+		if(column.getSchema() == m_schema && m_schema.getStorage(column.getIndex()) == RecordSchema.Storage.OBJECT)
+			setAt(column.getIndex(), Integer.valueOf(value));
+		else
+			setLong(column, value);
+	}
+
+	@Override
+	public void setDouble(RecordSchema.Column column, double value) {
+		if(column.getSchema() == m_schema && m_schema.getStorage(column.getIndex()) == RecordSchema.Storage.DOUBLE)
+			setPrimitive(column.getIndex(), Double.doubleToRawLongBits(value));
+		else
+			set(column, Double.valueOf(value));
+	}
+
+	private void setPrimitive(int index, long bits) {
+		m_primitives[m_schema.getPrimitiveIndex(index)] = bits;
+		m_values[index] = PRIMITIVE_VAL;
+	}
+
+	/**
+	 * Sets a value by column index; whole numbers and doubles that the column can hold are unboxed, anything else
+	 * is kept as it is.
+	 */
+	private void setAt(int index, @Nullable Object value) {
+		if(null == value) {
+			m_values[index] = NULL_VAL;
+			return;
+		}
+		switch(m_schema.getStorage(index)) {
+			default:
+				break;
+
+			case INT:
+			case LONG:
+				if(value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+					long l = ((Number) value).longValue();
+					if(m_schema.getStorage(index) == RecordSchema.Storage.LONG || l == (int) l) {
+						setPrimitive(index, l);
+						return;
+					}
+				}
+				break;
+
+			case DOUBLE:
+				if(value instanceof Double || value instanceof Float) {
+					setPrimitive(index, Double.doubleToRawLongBits(((Number) value).doubleValue()));
+					return;
+				}
+				break;
+		}
+		m_values[index] = value;
 	}
 
+	@Override
+	@Nullable
 	public Object get(String name) {
-		Object v = m_valueMap.get(name.toLowerCase());
+		int index = m_schema.indexOf(name);
+		if(index >= 0)
+			return getAt(index);
+		Map<String, Object> extraValues = m_extraValues;
+		Object v = null == extraValues ? null : extraValues.get(name.toLowerCase());
 		if(v == NULL_VAL)
 			return null;
 		return v;
 	}
 
+	/**
+	 * Gets the value through a column of this record's schema, without looking up the name.
+	 */
+	@Override
+	@Nullable
+	public Object get(RecordSchema.Column column) {
+		if(column.getSchema() != m_schema)
+			return get(column.getName());
+		return getAt(column.getIndex());
+	}
+
+	/**
+	 * The value as an object: unboxed values are boxed again, as Integer, Long or Double.
+	 */
+	@Nullable
+	private Object getAt(int index) {
+		Object v = m_values[index];
+		if(v == PRIMITIVE_VAL) {
+			long bits = m_primitives[m_schema.getPrimitiveIndex(index)];
+			switch(m_schema.getStorage(index)) {
+				default:
+					throw new IllegalStateException("Column " + m_schema.getName(index) + " is not stored unboxed");
+
+				case INT:
+					return Integer.valueOf((int) bits);
+
+				case LONG:
+					return Long.valueOf(bits);
+
+				case DOUBLE:
+					return Double.valueOf(Double.longBitsToDouble(bits));
+			}
+		}
+		if(v == NULL_VAL)
+			return null;
+		return v;
+	}
+
+	/**
+	 * True when the column is null or has no value.
+	 */
+	@Override
+	public boolean isNull(String name) {
+		return null == get(name);
+	}
+
+	@Override
+	public boolean isNull(RecordSchema.Column column) {
+		if(column.getSchema() != m_schema)
+			return isNull(column.getName());
+		Object v = m_values[column.getIndex()];
+		return null == v || v == NULL_VAL;
+	}
+
+	/**
+	 * The value as a long, or nullValue when it is null or not set. Does not allocate for unboxed columns.
+	 */
+	@Override
+	public long getLong(String name, long nullValue) {
+		int index = m_schema.indexOf(name);
+		if(index < 0) {
+			Object v = get(name);
+			return null == v ? nullValue : RuntimeConversions.convertToLong(v);
+		}
+		return getLongAt(index, nullValue);
+	}
+
+	@Override
+	public long getLong(RecordSchema.Column column, long nullValue) {
+		if(column.getSchema() != m_schema)
+			return getLong(column.getName(), nullValue);
+		return getLongAt(column.getIndex(), nullValue);
+	}
+
+	private long getLongAt(int index, long nullValue) {
+		Object v = m_values[index];
+		if(v == PRIMITIVE_VAL) {
+			long bits = m_primitives[m_schema.getPrimitiveIndex(index)];
+			return m_schema.getStorage(index) == RecordSchema.Storage.DOUBLE ? (long) Double.longBitsToDouble(bits) : bits;
+		}
+		if(null == v || v == NULL_VAL)
+			return nullValue;
+		return RuntimeConversions.convertToLong(v);
+	}
+
+	/**
+	 * The value as an int, or nullValue when it is null or not set. Does not allocate for unboxed columns.
+	 */
+	@Override
+	public int getInt(String name, int nullValue) {
+		int index = m_schema.indexOf(name);
+		if(index < 0) {
+			Object v = get(name);
+			return null == v ? nullValue : RuntimeConversions.convertToInt(v);
+		}
+		return getIntAt(index, nullValue);
+	}
+
+	@Override
+	public int getInt(RecordSchema.Column column, int nullValue) {
+		if(column.getSchema() != m_schema)
+			return getInt(column.getName(), nullValue);
+		return getIntAt(column.getIndex(), nullValue);
+	}
+
+	private int getIntAt(int index, int nullValue) {
+		Object v = m_values[index];
+		if(v == PRIMITIVE_VAL) {
+			long bits = m_primitives[m_schema.getPrimitiveIndex(index)];
+			return m_schema.getStorage(index) == RecordSchema.Storage.DOUBLE ? (int) Double.longBitsToDouble(bits) : (int) bits;
+		}
+		if(null == v || v == NULL_VAL)
+			return nullValue;
+		return RuntimeConversions.convertToInt(v);
+	}
+
+	/**
+	 * The value as a double, or nullValue when it is null or not set. Does not allocate for unboxed columns.
+	 */
+	@Override
+	public double getDouble(String name, double nullValue) {
+		int index = m_schema.indexOf(name);
+		if(index < 0) {
+			Object v = get(name);
+			return null == v ? nullValue : RuntimeConversions.convertToDouble(v);
+		}
+		return getDoubleAt(index, nullValue);
+	}
+
+	@Override
+	public double getDouble(RecordSchema.Column column, double nullValue) {
+		if(column.getSchema() != m_schema)
+			return getDouble(column.getName(), nullValue);
+		return getDoubleAt(column.getIndex(), nullValue);
+	}
+
+	private double getDoubleAt(int index, double nullValue) {
+		Object v = m_values[index];
+		if(v == PRIMITIVE_VAL) {
+			long bits = m_primitives[m_schema.getPrimitiveIndex(index)];
+			return m_schema.getStorage(index) == RecordSchema.Storage.DOUBLE ? Double.longBitsToDouble(bits) : (double) bits;
+		}
+		if(null == v || v == NULL_VAL)
+			return nullValue;
+		return RuntimeConversions.convertToDouble(v);
+	}
+
+	/**
+	 * This record, or a copy when it is leased from a {@link RecordPool} and so will be reused.
+	 */
+	@Override
+	public JdbcAnyRecord asRecord() {
+		return null == m_pool ? this : copy();
+	}
+
 	public <T> T getValue(Class<T> type, String name) {
 		return getValue(type, name, null);
 	}
@@ -135,8 +490,30 @@ public class JdbcAnyRecord {
 		return RuntimeConversions.convertTo(v, type);
 	}
 
+	/**
+	 * The lower case names of the columns that have a value, in column order.
+	 */
+	@Override
 	public Set<String> getAllColumnNames() {
-		return m_valueMap.keySet();
+		Map<String, Object> extraValues = m_extraValues;
+		boolean complete = true;
+		for(Object value : m_values) {
+			if(null == value) {
+				complete = false;
+				break;
+			}
+		}
+		if(complete && null == extraValues)
+			return m_schema.getLowerCaseNames();
+
+		Set<String> names = new LinkedHashSet<>();
+		for(int i = 0; i < m_values.length; i++) {
+			if(null != m_values[i])
+				names.add(m_schema.getName(i).toLowerCase());
+		}
+		if(null != extraValues)
+			names.addAll(extraValues.keySet());
+		return names;
 	}
 
 }
@@ -0,0 +1,396 @@
+package com.htec.util;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the records of a query on its own reader thread, which stays up to readAheadBlocks blocks of fetchSize
+ * records ahead of the consumer. While the consumer's records are being processed the next ones are fetched, so
+ * the database latency overlaps with that work instead of adding to it. A full read-ahead blocks the reader, so
+ * at most that many records are held in memory.
+ *
+ * <p>A source made by {@link #partitioned} splits the query over the key space and reads the partitions at the
+ * same time, each on its own connection and thread, into the same read-ahead; records then come in no particular
+ * order.</p>
+ *
+ * <p>The {@link FetchMode} tells the driver how to fetch: without it many drivers load the whole result before
+ * returning the first row.</p>
+ *
+ * <p>With a {@link RecordPool} the rows are read into records leased from it, which the consumer releases once
+ * it is done with them.</p>
+ */
+@NonNullByDefault
+final public class JdbcRecordSource implements RecordSource {
+	public enum FetchMode {
+		/** Whatever the driver does by default; often the whole result at once. */
+		BUFFERED,
+
+		/** A server-side cursor fetching fetchSize rows per round trip; needs auto commit off (PostgreSQL, Oracle, H2). */
+		CURSOR,
+
+		/** Rows streamed one by one from the open result, as MySQL does for a fetch size of Integer.MIN_VALUE. */
+		STREAMING
+	}
+
+	public enum Partitioning {
+		/** Equal ranges between the lowest and highest key: each partition can use an index on the key, but skewed keys give uneven partitions. */
+		RANGE,
+
+		/** key modulo the partition count: even partitions, but every partition scans everything the query selects. */
+		MODULO
+	}
+
+	/**
+	 * One query read by one reader thread.
+	 */
+	static private final class PartitionQuery {
+		private final String m_query;
+
+		private final List<?> m_parameters;
+
+		PartitionQuery(String query, List<?> parameters) {
+			m_query = query;
+			m_parameters = List.copyOf(parameters);
+		}
+	}
+
+	/** Put after the last block. */
+	static private final List<JdbcAnyRecord> END = Collections.emptyList();
+
+	private final ConnectionFactory m_connectionFactory;
+
+	private final List<PartitionQuery> m_partitions;
+
+	private final String m_tableName;
+
+	private final int m_fetchSize;
+
+	private final FetchMode m_fetchMode;
+
+	private final BlockingQueue<List<JdbcAnyRecord>> m_blocks;
+
+	private final List<Thread> m_readers = new ArrayList<>();
+
+	/** The running queries, so that close can cancel readers stuck in the database. */
+	private final Set<PreparedStatement> m_statements = ConcurrentHashMap.newKeySet();
+
+	@Nullable
+	private RecordPool m_recordPool;
+
+	/** The schema of the first partition that started reading, which the others share when their columns match. */
+	@Nullable
+	private RecordSchema m_schema;
+
+	/** Readers that did not put their END yet. */
+	private int m_runningReaders;
+
+	@Nullable
+	private volatile Throwable m_error;
+
+	private volatile boolean m_closed;
+
+	private List<JdbcAnyRecord> m_current = Collections.emptyList();
+
+	private int m_currentIndex;
+
+	private boolean m_ended;
+
+	/** How long the consumer waited for the reader, which says whether the read-ahead keeps up. */
+	private long m_waitNanos;
+
+	private long m_readCount;
+
+	public JdbcRecordSource(ConnectionFactory connectionFactory, String query, List<?> parameters, String tableName, int fetchSize, FetchMode fetchMode, int readAheadBlocks) {
+		this(connectionFactory, List.of(new PartitionQuery(query, parameters)), tableName, fetchSize, fetchMode, readAheadBlocks);
+	}
+
+	private JdbcRecordSource(ConnectionFactory connectionFactory, List<PartitionQuery> partitions, String tableName, int fetchSize, FetchMode fetchMode, int readAheadBlocks) {
+		if(fetchSize < 1 || readAheadBlocks < 1)
+			throw new IllegalArgumentException("The fetch size and read-ahead must be at least 1");
+		m_connectionFactory = connectionFactory;
+		m_partitions = partitions;
+		m_tableName = tableName;
+		m_fetchSize = fetchSize;
+		m_fetchMode = fetchMode;
+		m_blocks = new ArrayBlockingQueue<>(readAheadBlocks);
+	}
+
+	/**
+	 * A source reading the query in partitions over keyColumn, which must be an integer column in its result. Each
+	 * partition reads "SELECT * FROM (query) p WHERE [partition condition on p.keyColumn]" on its own connection;
+	 * the partition count is independent of how many threads process the records. RANGE partitioning first queries
+	 * the lowest and highest key. Rows with a NULL key are read by the first partition.
+	 */
+	static public JdbcRecordSource partitioned(ConnectionFactory connectionFactory, String query, List<?> parameters, String keyColumn, Partitioning partitioning, int partitionCount,
+		String tableName, int fetchSize, FetchMode fetchMode, int readAheadBlocks) throws SQLException {
+		if(partitionCount < 1)
+			throw new IllegalArgumentException("The partition count must be at least 1");
+		String key = "p." + keyColumn;
+		String partitionQuery = "SELECT * FROM (" + query + ") p WHERE ";
+		List<PartitionQuery> partitions = new ArrayList<>();
+		switch(partitioning) {
+			default:
+				throw new IllegalStateException("Unknown partitioning " + partitioning);
+
+			case MODULO:
+				//-- MOD has the sign of the key, so it is shifted into 0..partitionCount-1 for negative keys
+				String modulo = "MOD(MOD(" + key + ", " + partitionCount + ") + " + partitionCount + ", " + partitionCount + ") = ?";
+				for(int i = 0; i < partitionCount; i++) {
+					List<Object> partitionParameters = new ArrayList<>(parameters);
+					partitionParameters.add(i);
+					partitions.add(new PartitionQuery(partitionQuery + (i == 0 ? "(" + modulo + " OR " + key + " IS NULL)" : modulo), partitionParameters));
+				}
+				break;
+
+			case RANGE:
+				long min;
+				long max;
+				try(Connection connection = connectionFactory.getConnection();
+					PreparedStatement ps = connection.prepareStatement("SELECT MIN(" + key + "), MAX(" + key + ") FROM (" + query + ") p")) {
+					for(int i = 0; i < parameters.size(); i++) {
+						ps.setObject(i + 1, parameters.get(i));
+					}
+					try(ResultSet rs = ps.executeQuery()) {
+						rs.next();
+						min = rs.getLong(1);
+						if(rs.wasNull())							// Nothing to read
+							return new JdbcRecordSource(connectionFactory, query, parameters, tableName, fetchSize, fetchMode, readAheadBlocks);
+						max = rs.getLong(2);
+					}
+				}
+
+				//-- The first partition has no lower and the last no upper bound, so keys added meanwhile are read too.
+				//-- The number of keys may not fit in a long, so the bounds are computed in BigInteger; each lies
+				//-- between min and max.
+				BigInteger keys = BigInteger.valueOf(max).subtract(BigInteger.valueOf(min)).add(BigInteger.ONE);
+				int ranges = keys.compareTo(BigInteger.valueOf(partitionCount)) < 0 ? keys.intValue() : partitionCount;
+				for(int i = 0; i < ranges; i++) {
+					List<Object> partitionParameters = new ArrayList<>(parameters);
+					StringBuilder condition = new StringBuilder();
+					if(i > 0) {
+						condition.append(key).append(" >= ?");
+						partitionParameters.add(rangeStart(min, keys, ranges, i));
+					}
+					if(i < ranges - 1) {
+						if(condition.length() > 0)
+							condition.append(" AND ");
+						condition.append(key).append(" < ?");
+						partitionParameters.add(rangeStart(min, keys, ranges, i + 1));
+					}
+					if(i == 0 && condition.length() > 0) {
+						condition.insert(0, '(').append(" OR ").append(key).append(" IS NULL)");
+					}
+					partitions.add(new PartitionQuery(condition.length() == 0 ? query : partitionQuery + condition, condition.length() == 0 ? parameters : partitionParameters));
+				}
+				break;
+		}
+		return new JdbcRecordSource(connectionFactory, partitions, tableName, fetchSize, fetchMode, readAheadBlocks);
+	}
+
+	/**
+	 * The first key of range i, when the given number of keys from min on are split into ranges equal ranges.
+	 */
+	static private long rangeStart(long min, BigInteger keys, int ranges, int i) {
+		return BigInteger.valueOf(min).add(keys.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(ranges))).longValueExact();
+	}
+
+	/**
+	 * Read into records leased from the pool; set before {@link #open()}.
+	 */
+	public synchronized void setRecordPool(RecordPool recordPool) {
+		if(!m_readers.isEmpty())
+			throw new IllegalStateException("Already open");
+		m_recordPool = recordPool;
+	}
+
+	/**
+	 * Start the reader threads; the first records are available as soon as one has read a block.
+	 */
+	public synchronized void open() {
+		if(!m_readers.isEmpty())
+			throw new IllegalStateException("Already open");
+		m_runningReaders = m_partitions.size();
+		for(int i = 0; i < m_partitions.size(); i++) {
+			PartitionQuery partition = m_partitions.get(i);
+			Thread reader = new Thread(() -> read(partition), m_partitions.size() == 1 ? "jdbc-record-source-reader" : "jdbc-record-source-reader-" + i);
+			reader.setDaemon(true);
+			m_readers.add(reader);
+		}
+		m_readers.forEach(Thread::start);
+	}
+
+	public int getPartitionCount() {
+		return m_partitions.size();
+	}
+
+	@Override
+	public boolean hasNext() throws Exception {
+		if(m_currentIndex < m_current.size())
+			return true;
+		if(m_ended)
+			return false;
+		synchronized(this) {
+			if(m_readers.isEmpty())
+				throw new IllegalStateException("The source is not open");
+		}
+		for(;;) {
+			long start = System.nanoTime();
+			List<JdbcAnyRecord> block = m_blocks.take();
+			m_waitNanos += System.nanoTime() - start;
+			if(block != END) {
+				m_current = block;
+				m_currentIndex = 0;
+				return true;
+			}
+			Throwable error = m_error;
+			if(null != error) {
+				m_ended = true;
+				throw WrappedException.wrap(error);
+			}
+			if(--m_runningReaders == 0) {
+				m_ended = true;
+				return false;
+			}
+		}
+	}
+
+	@Override
+	public JdbcAnyRecord next() throws Exception {
+		if(!hasNext())
+			throw new IllegalStateException("No more records in " + m_tableName);
+		m_readCount++;
+		return m_current.get(m_currentIndex++);
+	}
+
+	private void read(PartitionQuery partition) {
+		try(Connection connection = m_connectionFactory.getConnection()) {
+			if(m_fetchMode == FetchMode.CURSOR) {
+				connection.setAutoCommit(false);
+			}
+			try(PreparedStatement ps = connection.prepareStatement(partition.m_query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+				m_statements.add(ps);
+				try {
+					readRows(ps, partition);
+				} finally {
+					m_statements.remove(ps);
+				}
+			} finally {
+				if(m_fetchMode == FetchMode.CURSOR) {
+					connection.rollback();						// Only read; end the cursor's transaction
+				}
+			}
+		} catch(InterruptedException x) {
+			//-- Closed while waiting for the consumer
+		} catch(Exception | Error x) {
+			synchronized(this) {
+				if(!m_closed && null == m_error) {
+					m_error = x;								// Report the first failing partition
+				}
+			}
+		} finally {
+			if(!m_closed) {
+				try {
+					m_blocks.put(END);
+				} catch(InterruptedException x) {
+					//-- Closed; nobody is waiting for the end anymore
+				}
+			}
+		}
+	}
+
+	private void readRows(PreparedStatement ps, PartitionQuery partition) throws SQLException, InterruptedException {
+		switch(m_fetchMode) {
+			default:
+				break;
+
+			case CURSOR:
+				ps.setFetchSize(m_fetchSize);
+				break;
+
+			case STREAMING:
+				ps.setFetchSize(Integer.MIN_VALUE);
+				break;
+		}
+		for(int i = 0; i < partition.m_parameters.size(); i++) {
+			ps.setObject(i + 1, partition.m_parameters.get(i));
+		}
+		try(ResultSet rs = ps.executeQuery()) {
+			RecordSchema schema = sharedSchema(RecordSchema.of(m_tableName, rs.getMetaData()));
+			RecordPool pool = m_recordPool;
+			List<JdbcAnyRecord> block = new ArrayList<>(m_fetchSize);
+			while(!m_closed && rs.next()) {
+				JdbcAnyRecord record = null == pool ? new JdbcAnyRecord(schema) : pool.lease(schema);
+				record.initFromRS(schema, rs);
+				block.add(record);
+				if(block.size() >= m_fetchSize) {
+					m_blocks.put(block);
+					block = new ArrayList<>(m_fetchSize);
+				}
+			}
+			if(!block.isEmpty()) {
+				m_blocks.put(block);
+			}
+		}
+	}
+
+	/**
+	 * All partitions read the same query, so they share one schema: pooled records then keep their value arrays
+	 * whichever partition leases them next, and a {@link RecordSchema.Column} of it reads every record.
+	 */
+	private synchronized RecordSchema sharedSchema(RecordSchema schema) {
+		RecordSchema shared = m_schema;
+		if(null == shared) {
+			m_schema = schema;
+			return schema;
+		}
+		return shared.hasSameColumns(schema) ? shared : schema;
+	}
+
+	public long getReadCount() {
+		return m_readCount;
+	}
+
+	public String getStatus() {
+		return m_readCount + " records read from " + m_tableName + " in " + m_partitions.size() + " partition(s), waited " + TimeUnit.NANOSECONDS.toMillis(m_waitNanos) + "ms for the reader";
+	}
+
+	/**
+	 * Stop reading, also when not all records were read.
+	 */
+	@Override
+	public void close() throws Exception {
+		m_closed = true;
+		List<Thread> readers;
+		synchronized(this) {
+			readers = new ArrayList<>(m_readers);
+		}
+		for(PreparedStatement ps : m_statements) {
+			try {
+				ps.cancel();
+			} catch(SQLException x) {
+				//-- Not supported, or already done
+			}
+		}
+		for(Thread reader : readers) {
+			reader.interrupt();
+		}
+		for(Thread reader : readers) {
+			reader.join(TimeUnit.SECONDS.toMillis(30));
+		}
+		m_blocks.clear();
+	}
+}
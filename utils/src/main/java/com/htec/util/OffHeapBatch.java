@@ -0,0 +1,853 @@
+package com.htec.util;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * A batch of rows serialized into direct buffers taken from a {@link SegmentPool}, for batches so large that
+ * keeping them as records, or even as a {@link ColumnarBatch}, puts the old generation under pressure. Close the
+ * batch when it is done with to give its segments back to the pool; its rows cannot be used after that.
+ *
+ * <p>A row is a bitmap of its null columns, then a fixed slot per column: the value of INT, LONG and DOUBLE columns
+ * (see {@link RecordSchema.Storage}), and for the others the offset, from the start of the row, of their value
+ * after the slots: a tag byte and the value. Strings with only Latin-1 characters take a byte per character. Rows
+ * do not span segments. The {@link Row} flyweights read numbers from the buffers, and hash and compare strings
+ * there, without making objects; get() makes the object.</p>
+ *
+ * <p>Setting a number on a row changes it in the buffer. Packed values cannot change size, so a value set on any
+ * other column is kept on the heap instead, in an array per column that is made on the first such set, and is
+ * read from there from then on.</p>
+ *
+ * <p>Not thread safe: hand a batch from one thread to another as any other object.</p>
+ */
+@NonNullByDefault
+final public class OffHeapBatch implements AutoCloseable {
+	static private final byte STRING_LATIN1 = 1;
+
+	static private final byte STRING_UTF16 = 2;
+
+	static private final byte DECIMAL = 3;
+
+	static private final byte INT = 4;
+
+	static private final byte LONG = 5;
+
+	static private final byte DOUBLE = 6;
+
+	static private final byte DATE = 7;
+
+	private final RecordSchema m_schema;
+
+	private final SegmentPool m_pool;
+
+	private final int m_nullBytes;
+
+	/** The offset of each column's slot from the start of a row. */
+	private final int[] m_slotOffsets;
+
+	private final int m_fixedSize;
+
+	private final List<ByteBuffer> m_segments = new ArrayList<>();
+
+	@Nullable
+	private ByteBuffer m_current;
+
+	private int m_writePosition;
+
+	/** Per row the index of its segment in the high and its offset in the low 32 bits. */
+	private long[] m_rows;
+
+	private int m_size;
+
+	private long m_bytes;
+
+	/** The values of the object columns of the row being added. */
+	private final Object[] m_objects;
+
+	/** Per column, by row, the values set on rows for columns that are not stored unboxed; made when first needed. */
+	@Nullable
+	private Object[][] m_overrides;
+
+	/** The last schema found to have the same columns as ours, whose records are read by column index. */
+	@Nullable
+	private RecordSchema m_sameColumnsSchema;
+
+	private boolean m_closed;
+
+	public OffHeapBatch(RecordSchema schema, SegmentPool pool, int expectedRows) {
+		m_schema = schema;
+		m_pool = pool;
+		m_rows = new long[Math.max(1, expectedRows)];
+		m_objects = new Object[schema.size()];
+		m_nullBytes = (schema.size() + 7) >>> 3;
+		m_slotOffsets = new int[schema.size()];
+		int offset = m_nullBytes;
+		for(int i = 0; i < schema.size(); i++) {
+			m_slotOffsets[i] = offset;
+			offset += isFixed(i) && schema.getStorage(i) != RecordSchema.Storage.INT ? 8 : 4;
+		}
+		m_fixedSize = offset;
+	}
+
+	private boolean isFixed(int column) {
+		switch(m_schema.getStorage(column)) {
+			default:
+				return false;
+
+			case INT:
+			case LONG:
+			case DOUBLE:
+				return true;
+		}
+	}
+
+	/**
+	 * Serializes the values of the record into a new row, by column name; columns of the record that are not in
+	 * the schema of the batch are ignored. Returns the index of the row.
+	 */
+	public int add(IAnyRecord record) {
+		checkOpen();
+		RecordSchema schema = record.getSchema();
+		boolean byIndex = schema == m_schema || schema == m_sameColumnsSchema;
+		if(!byIndex && m_schema.hasSameColumns(schema)) {
+			m_sameColumnsSchema = schema;
+			byIndex = true;
+		}
+
+		int size = m_fixedSize;
+		for(int i = 0; i < m_objects.length; i++) {
+			if(!isFixed(i)) {
+				Object value = m_objects[i] = record.get(byIndex ? schema.column(i) : m_schema.column(i));
+				if(null != value)
+					size += sizeOf(value);
+			}
+		}
+		int base = reserve(size);
+		ByteBuffer buffer = Objects.requireNonNull(m_current);
+		for(int i = 0; i < m_nullBytes; i++) {
+			buffer.put(base + i, (byte) 0);
+		}
+		int at = base + m_fixedSize;
+		for(int i = 0; i < m_objects.length; i++) {
+			RecordSchema.Column column = byIndex ? schema.column(i) : m_schema.column(i);
+			int slot = base + m_slotOffsets[i];
+			switch(m_schema.getStorage(i)) {
+				default:
+					Object value = m_objects[i];
+					m_objects[i] = null;
+					if(null == value) {
+						setNullBit(buffer, base, i, true);
+						buffer.putInt(slot, 0);
+					} else {
+						buffer.putInt(slot, at - base);
+						at = write(buffer, at, value);
+					}
+					break;
+
+				case INT:
+					boolean intNull = record.isNull(column);
+					setNullBit(buffer, base, i, intNull);
+					buffer.putInt(slot, intNull ? 0 : record.getInt(column, 0));
+					break;
+
+				case LONG:
+					boolean longNull = record.isNull(column);
+					setNullBit(buffer, base, i, longNull);
+					buffer.putLong(slot, longNull ? 0 : record.getLong(column, 0));
+					break;
+
+				case DOUBLE:
+					boolean doubleNull = record.isNull(column);
+					setNullBit(buffer, base, i, doubleNull);
+					buffer.putDouble(slot, doubleNull ? 0 : record.getDouble(column, 0));
+					break;
+			}
+		}
+
+		if(m_size == m_rows.length)
+			m_rows = Arrays.copyOf(m_rows, m_size * 2);
+		m_rows[m_size] = (long) (m_segments.size() - 1) << 32 | base;
+		return m_size++;
+	}
+
+	/**
+	 * Room for a row in the current segment, or else in a new one; a row larger than a segment gets a buffer of
+	 * its own, which the pool does not keep.
+	 */
+	private int reserve(int size) {
+		ByteBuffer current = m_current;
+		if(null == current || current.capacity() - m_writePosition < size) {
+			current = m_current = size > m_pool.getSegmentSize()
+				? ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder())
+				: m_pool.acquire();
+			m_segments.add(current);
+			m_writePosition = 0;
+		}
+		int base = m_writePosition;
+		m_writePosition += size;
+		m_bytes += size;
+		return base;
+	}
+
+	static private int sizeOf(Object value) {
+		if(value instanceof String) {
+			String s = (String) value;
+			return 5 + (isLatin1(s) ? s.length() : 2 * s.length());
+		}
+		if(value instanceof BigDecimal)
+			return 9 + ((BigDecimal) value).unscaledValue().bitLength() / 8 + 1;
+		if(value instanceof Integer || value instanceof Short || value instanceof Byte)
+			return 5;
+		if(value instanceof Long || value instanceof Double || value instanceof Float || value instanceof java.util.Date)
+			return 9;
+		throw new IllegalArgumentException("Cannot keep " + value.getClass().getName() + " values off-heap");
+	}
+
+	static private boolean isLatin1(String s) {
+		for(int i = 0, len = s.length(); i < len; i++) {
+			if(s.charAt(i) > 0xff)
+				return false;
+		}
+		return true;
+	}
+
+	static private int write(ByteBuffer buffer, int at, Object value) {
+		if(value instanceof String) {
+			String s = (String) value;
+			int len = s.length();
+			if(isLatin1(s)) {
+				buffer.put(at, STRING_LATIN1);
+				buffer.putInt(at + 1, len);
+				for(int i = 0; i < len; i++) {
+					buffer.put(at + 5 + i, (byte) s.charAt(i));
+				}
+				return at + 5 + len;
+			}
+			buffer.put(at, STRING_UTF16);
+			buffer.putInt(at + 1, len);
+			for(int i = 0; i < len; i++) {
+				buffer.putChar(at + 5 + 2 * i, s.charAt(i));
+			}
+			return at + 5 + 2 * len;
+		}
+		if(value instanceof BigDecimal) {
+			BigDecimal bd = (BigDecimal) value;
+			byte[] unscaled = bd.unscaledValue().toByteArray();
+			buffer.put(at, DECIMAL);
+			buffer.putInt(at + 1, bd.scale());
+			buffer.putInt(at + 5, unscaled.length);
+			for(int i = 0; i < unscaled.length; i++) {
+				buffer.put(at + 9 + i, unscaled[i]);
+			}
+			return at + 9 + unscaled.length;
+		}
+		if(value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			buffer.put(at, INT);
+			buffer.putInt(at + 1, ((Number) value).intValue());
+			return at + 5;
+		}
+		if(value instanceof Long) {
+			buffer.put(at, LONG);
+			buffer.putLong(at + 1, (Long) value);
+			return at + 9;
+		}
+		if(value instanceof Double || value instanceof Float) {
+			buffer.put(at, DOUBLE);
+			buffer.putDouble(at + 1, ((Number) value).doubleValue());
+			return at + 9;
+		}
+		buffer.put(at, DATE);
+		buffer.putLong(at + 1, ((java.util.Date) value).getTime());
+		return at + 9;
+	}
+
+	static private void setNullBit(ByteBuffer buffer, int base, int column, boolean isNull) {
+		int at = base + (column >>> 3);
+		int bit = 1 << (column & 7);
+		byte b = buffer.get(at);
+		buffer.put(at, (byte) (isNull ? b | bit : b & ~bit));
+	}
+
+	static private boolean isNullBit(ByteBuffer buffer, int base, int column) {
+		return (buffer.get(base + (column >>> 3)) & (1 << (column & 7))) != 0;
+	}
+
+	private void checkOpen() {
+		if(m_closed)
+			throw new IllegalStateException("The off-heap batch is closed");
+	}
+
+	private ByteBuffer segmentOf(long address) {
+		checkOpen();
+		return m_segments.get((int) (address >>> 32));
+	}
+
+	public int size() {
+		return m_size;
+	}
+
+	public RecordSchema getSchema() {
+		return m_schema;
+	}
+
+	/**
+	 * The bytes the rows take, without the unused ends of the segments.
+	 */
+	public long getBytesUsed() {
+		return m_bytes;
+	}
+
+	public int getSegmentCount() {
+		return m_segments.size();
+	}
+
+	public Row row(int index) {
+		Objects.checkIndex(index, m_size);
+		return new Row(index);
+	}
+
+	/**
+	 * The rows as a list, making each Row when it is asked for.
+	 */
+	public List<Row> rows() {
+		return new RowList();
+	}
+
+	/**
+	 * Adds, for each row, the hashCode the value of the column has as an object (0 for null) to hashes.
+	 */
+	public void addHashCodes(int column, int[] hashes) {
+		for(int row = 0; row < m_size; row++) {
+			long address = m_rows[row];
+			Object value = overrideOf(row, column);
+			hashes[row] += null != value ? value.hashCode() : hashCode(segmentOf(address), (int) address, column);
+		}
+	}
+
+	/**
+	 * Gives the segments back to the pool.
+	 */
+	@Override
+	public void close() {
+		if(m_closed)
+			return;
+		m_closed = true;
+		for(ByteBuffer segment : m_segments) {
+			m_pool.release(segment);
+		}
+		m_segments.clear();
+		m_current = null;
+		m_overrides = null;
+	}
+
+	private final class RowList extends AbstractList<Row> implements RandomAccess {
+		@Override
+		public Row get(int index) {
+			return row(index);
+		}
+
+		@Override
+		public int size() {
+			return m_size;
+		}
+	}
+
+	/*--------------------------------------------------------------*/
+	/*	CODING:	Reading values.										*/
+	/*--------------------------------------------------------------*/
+
+	/**
+	 * The value set on the row for a column that is not stored unboxed, which replaces the one in the buffer; null
+	 * when none was set, or it was set to null.
+	 */
+	@Nullable
+	private Object overrideOf(int row, int column) {
+		Object[][] overrides = m_overrides;
+		if(null == overrides)
+			return null;
+		Object[] values = overrides[column];
+		return null == values || row >= values.length ? null : values[row];
+	}
+
+	private void setOverride(int row, int column, @Nullable Object value) {
+		Object[][] overrides = m_overrides;
+		if(null == overrides) {
+			if(null == value)
+				return;
+			overrides = m_overrides = new Object[m_schema.size()][];
+		}
+		Object[] values = overrides[column];
+		if(null == values || row >= values.length) {
+			if(null == value)
+				return;
+			values = overrides[column] = null == values ? new Object[Math.max(m_size, row + 1)] : Arrays.copyOf(values, Math.max(m_size, row + 1));
+		}
+		values[row] = value;
+	}
+
+	/**
+	 * Where the value of an object column starts: its tag.
+	 */
+	private int valueAt(ByteBuffer buffer, int base, int column) {
+		return base + buffer.getInt(base + m_slotOffsets[column]);
+	}
+
+	@Nullable
+	private Object read(ByteBuffer buffer, int base, int column) {
+		if(isNullBit(buffer, base, column))
+			return null;
+		int slot = base + m_slotOffsets[column];
+		switch(m_schema.getStorage(column)) {
+			default:
+				return readObject(buffer, valueAt(buffer, base, column));
+
+			case INT:
+				return Integer.valueOf(buffer.getInt(slot));
+
+			case LONG:
+				return Long.valueOf(buffer.getLong(slot));
+
+			case DOUBLE:
+				return Double.valueOf(buffer.getDouble(slot));
+		}
+	}
+
+	static private Object readObject(ByteBuffer buffer, int at) {
+		byte tag = buffer.get(at);
+		switch(tag) {
+			default:
+				throw new IllegalStateException("Unknown value tag " + tag);
+
+			case STRING_LATIN1: {
+				byte[] bytes = new byte[buffer.getInt(at + 1)];
+				for(int i = 0; i < bytes.length; i++) {
+					bytes[i] = buffer.get(at + 5 + i);
+				}
+				return new String(bytes, StandardCharsets.ISO_8859_1);
+			}
+
+			case STRING_UTF16: {
+				char[] chars = new char[buffer.getInt(at + 1)];
+				for(int i = 0; i < chars.length; i++) {
+					chars[i] = buffer.getChar(at + 5 + 2 * i);
+				}
+				return new String(chars);
+			}
+
+			case DECIMAL: {
+				byte[] unscaled = new byte[buffer.getInt(at + 5)];
+				for(int i = 0; i < unscaled.length; i++) {
+					unscaled[i] = buffer.get(at + 9 + i);
+				}
+				return new BigDecimal(new BigInteger(unscaled), buffer.getInt(at + 1));
+			}
+
+			case INT:
+				return Integer.valueOf(buffer.getInt(at + 1));
+
+			case LONG:
+				return Long.valueOf(buffer.getLong(at + 1));
+
+			case DOUBLE:
+				return Double.valueOf(buffer.getDouble(at + 1));
+
+			case DATE:
+				return new java.util.Date(buffer.getLong(at + 1));
+		}
+	}
+
+	private long readLong(ByteBuffer buffer, int base, int column) {
+		int slot = base + m_slotOffsets[column];
+		switch(m_schema.getStorage(column)) {
+			default:
+				int at = valueAt(buffer, base, column);
+				switch(buffer.get(at)) {
+					default:
+						return RuntimeConversions.convertToLong(readObject(buffer, at));
+
+					case INT:
+						return buffer.getInt(at + 1);
+
+					case LONG:
+						return buffer.getLong(at + 1);
+
+					case DOUBLE:
+						return (long) buffer.getDouble(at + 1);
+				}
+
+			case INT:
+				return buffer.getInt(slot);
+
+			case LONG:
+				return buffer.getLong(slot);
+
+			case DOUBLE:
+				return (long) buffer.getDouble(slot);
+		}
+	}
+
+	private double readDouble(ByteBuffer buffer, int base, int column) {
+		int slot = base + m_slotOffsets[column];
+		switch(m_schema.getStorage(column)) {
+			default:
+				int at = valueAt(buffer, base, column);
+				switch(buffer.get(at)) {
+					default:
+						return RuntimeConversions.convertToDouble(readObject(buffer, at));
+
+					case INT:
+						return buffer.getInt(at + 1);
+
+					case LONG:
+						return buffer.getLong(at + 1);
+
+					case DOUBLE:
+						return buffer.getDouble(at + 1);
+				}
+
+			case INT:
+				return buffer.getInt(slot);
+
+			case LONG:
+				return buffer.getLong(slot);
+
+			case DOUBLE:
+				return buffer.getDouble(slot);
+		}
+	}
+
+	/**
+	 * The hashCode the value has as an object, or 0 for null; strings are hashed in the buffer.
+	 */
+	private int hashCode(ByteBuffer buffer, int base, int column) {
+		if(isNullBit(buffer, base, column))
+			return 0;
+		int slot = base + m_slotOffsets[column];
+		switch(m_schema.getStorage(column)) {
+			default:
+				break;
+
+			case INT:
+				return buffer.getInt(slot);
+
+			case LONG:
+				return Long.hashCode(buffer.getLong(slot));
+
+			case DOUBLE:
+				return Double.hashCode(buffer.getDouble(slot));
+		}
+		int at = valueAt(buffer, base, column);
+		int h = 0;
+		switch(buffer.get(at)) {
+			default:
+				return readObject(buffer, at).hashCode();
+
+			case STRING_LATIN1:
+				for(int i = 0, len = buffer.getInt(at + 1); i < len; i++) {
+					h = 31 * h + (buffer.get(at + 5 + i) & 0xff);
+				}
+				return h;
+
+			case STRING_UTF16:
+				for(int i = 0, len = buffer.getInt(at + 1); i < len; i++) {
+					h = 31 * h + buffer.getChar(at + 5 + 2 * i);
+				}
+				return h;
+
+			case INT:
+				return buffer.getInt(at + 1);
+
+			case LONG:
+			case DATE:
+				return Long.hashCode(buffer.getLong(at + 1));
+
+			case DOUBLE:
+				return Double.hashCode(buffer.getDouble(at + 1));
+		}
+	}
+
+	private boolean equalsString(ByteBuffer buffer, int base, int column, String s) {
+		if(isFixed(column) || isNullBit(buffer, base, column))
+			return false;
+		int at = valueAt(buffer, base, column);
+		byte tag = buffer.get(at);
+		int len = buffer.getInt(at + 1);
+		if((tag != STRING_LATIN1 && tag != STRING_UTF16) || len != s.length())
+			return false;
+		for(int i = 0; i < len; i++) {
+			char c = tag == STRING_LATIN1 ? (char) (buffer.get(at + 5 + i) & 0xff) : buffer.getChar(at + 5 + 2 * i);
+			if(c != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * A row of the batch, reading its values from the buffer. Numbers are changed in place; other values that are
+	 * set are kept on the heap, see {@link OffHeapBatch}.
+	 */
+	final public class Row implements IAnyRecord {
+		private final int m_row;
+
+		private final long m_address;
+
+		Row(int row) {
+			m_row = row;
+			m_address = m_rows[row];
+		}
+
+		public int getRowIndex() {
+			return m_row;
+		}
+
+		private ByteBuffer buffer() {
+			return segmentOf(m_address);
+		}
+
+		private int base() {
+			return (int) m_address;
+		}
+
+		private int indexOf(String name) {
+			return m_schema.indexOf(name);
+		}
+
+		private int indexOf(RecordSchema.Column column) {
+			return column.getSchema() == m_schema ? column.getIndex() : m_schema.indexOf(column.getName());
+		}
+
+		private int required(int index, String name) {
+			if(index < 0)
+				throw new IllegalArgumentException("No column " + name + " in the batch " + m_schema);
+			return index;
+		}
+
+		@Override
+		public RecordSchema getSchema() {
+			return m_schema;
+		}
+
+		@Override
+		@Nullable
+		public Object get(String name) {
+			int index = indexOf(name);
+			return index < 0 ? null : getAt(index);
+		}
+
+		@Override
+		@Nullable
+		public Object get(RecordSchema.Column column) {
+			int index = indexOf(column);
+			return index < 0 ? null : getAt(index);
+		}
+
+		@Nullable
+		private Object getAt(int index) {
+			Object value = overrideOf(m_row, index);
+			return null != value ? value : read(buffer(), base(), index);
+		}
+
+		@Override
+		public boolean isNull(String name) {
+			int index = indexOf(name);
+			return index < 0 || isNullBit(buffer(), base(), index);
+		}
+
+		@Override
+		public boolean isNull(RecordSchema.Column column) {
+			int index = indexOf(column);
+			return index < 0 || isNullBit(buffer(), base(), index);
+		}
+
+		@Override
+		public long getLong(String name, long nullValue) {
+			return getLongAt(indexOf(name), nullValue);
+		}
+
+		@Override
+		public long getLong(RecordSchema.Column column, long nullValue) {
+			return getLongAt(indexOf(column), nullValue);
+		}
+
+		private long getLongAt(int index, long nullValue) {
+			ByteBuffer buffer = buffer();
+			if(index < 0 || isNullBit(buffer, base(), index))
+				return nullValue;
+			Object value = overrideOf(m_row, index);
+			return null != value ? RuntimeConversions.convertToLong(value) : readLong(buffer, base(), index);
+		}
+
+		@Override
+		public int getInt(String name, int nullValue) {
+			return getIntAt(indexOf(name), nullValue);
+		}
+
+		@Override
+		public int getInt(RecordSchema.Column column, int nullValue) {
+			return getIntAt(indexOf(column), nullValue);
+		}
+
+		private int getIntAt(int index, int nullValue) {
+			ByteBuffer buffer = buffer();
+			if(index < 0 || isNullBit(buffer, base(), index))
+				return nullValue;
+			Object value = overrideOf(m_row, index);
+			return null != value ? RuntimeConversions.convertToInt(value) : (int) readLong(buffer, base(), index);
+		}
+
+		@Override
+		public double getDouble(String name, double nullValue) {
+			return getDoubleAt(indexOf(name), nullValue);
+		}
+
+		@Override
+		public double getDouble(RecordSchema.Column column, double nullValue) {
+			return getDoubleAt(indexOf(column), nullValue);
+		}
+
+		private double getDoubleAt(int index, double nullValue) {
+			ByteBuffer buffer = buffer();
+			if(index < 0 || isNullBit(buffer, base(), index))
+				return nullValue;
+			Object value = overrideOf(m_row, index);
+			return null != value ? RuntimeConversions.convertToDouble(value) : readDouble(buffer, base(), index);
+		}
+
+		/**
+		 * The hashCode of the value as an object, or 0 for null, without making the object.
+		 */
+		public int valueHashCode(RecordSchema.Column column) {
+			int index = indexOf(column);
+			if(index < 0)
+				return 0;
+			Object value = overrideOf(m_row, index);
+			return null != value ? value.hashCode() : OffHeapBatch.this.hashCode(buffer(), base(), index);
+		}
+
+		/**
+		 * True when the value is this string, compared in the buffer.
+		 */
+		public boolean valueEquals(RecordSchema.Column column, String s) {
+			int index = indexOf(column);
+			if(index < 0)
+				return false;
+			Object value = overrideOf(m_row, index);
+			return null != value ? value.equals(s) : equalsString(buffer(), base(), index, s);
+		}
+
+		@Override
+		public void set(String name, @Nullable Object value) {
+			setAt(required(indexOf(name), name), value);
+		}
+
+		@Override
+		public void set(RecordSchema.Column column, @Nullable Object value) {
+			setAt(required(indexOf(column), column.getName()), value);
+		}
+
+		private void setAt(int index, @Nullable Object value) {
+			ByteBuffer buffer = buffer();
+			if(null == value) {
+				setNullBit(buffer, base(), index, true);
+				setOverride(m_row, index, null);
+				return;
+			}
+			switch(m_schema.getStorage(index)) {
+				default:
+					setOverride(m_row, index, value);
+					break;
+
+				case INT:
+					long l = ColumnarBatch.exactLong(value);
+					if(l != (int) l)
+						throw new IllegalArgumentException("Value " + l + " does not fit in an int column");
+					buffer.putInt(base() + m_slotOffsets[index], (int) l);
+					break;
+
+				case LONG:
+					buffer.putLong(base() + m_slotOffsets[index], ColumnarBatch.exactLong(value));
+					break;
+
+				case DOUBLE:
+					if(!(value instanceof Number))
+						throw new IllegalArgumentException("Cannot keep " + value + " (" + value.getClass().getName() + ") in a double column");
+					buffer.putDouble(base() + m_slotOffsets[index], ((Number) value).doubleValue());
+					break;
+			}
+			setNullBit(buffer, base(), index, false);
+		}
+
+		@Override
+		public void setLong(RecordSchema.Column column, long value) {
+			int index = required(indexOf(column), column.getName());
+			if(m_schema.getStorage(index) == RecordSchema.Storage.DOUBLE)
+				setAt(index, Double.valueOf(value));
+			else
+				setAt(index, Long.valueOf(value));
+		}
+
+		@Override
+		public void setInt(RecordSchema.Column column, int value) {
+			setLong(column, value);
+		}
+
+		@Override
+		public void setDouble(RecordSchema.Column column, double value) {
+			setAt(required(indexOf(column), column.getName()), Double.valueOf(value));
+		}
+
+		/**
+		 * All columns of the batch: a row has a value, or null, for each.
+		 */
+		@Override
+		public Set<String> getAllColumnNames() {
+			return m_schema.getLowerCaseNames();
+		}
+
+		@Override
+		public JdbcAnyRecord asRecord() {
+			ByteBuffer buffer = buffer();
+			JdbcAnyRecord record = new JdbcAnyRecord(m_schema);
+			for(int i = 0; i < m_schema.size(); i++) {
+				RecordSchema.Column column = m_schema.column(i);
+				if(isNullBit(buffer, base(), i)) {
+					record.set(column, null);
+					continue;
+				}
+				switch(m_schema.getStorage(i)) {
+					default:
+						record.set(column, getAt(i));
+						break;
+
+					case INT:
+					case LONG:
+						record.setLong(column, readLong(buffer, base(), i));
+						break;
+
+					case DOUBLE:
+						record.setDouble(column, readDouble(buffer, base(), i));
+						break;
+				}
+			}
+			return record;
+		}
+
+		@Override
+		public String toString() {
+			return "row " + m_row + " of off-heap " + m_schema;
+		}
+	}
+}
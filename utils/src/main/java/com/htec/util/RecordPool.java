@@ -0,0 +1,115 @@
+package com.htec.util;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Records to read rows into, so that a steady stream of chunks reuses the same records and their value arrays
+ * instead of allocating them per row. A reader leases a record per row; whoever is done with the record last
+ * releases it, which clears its values. A leased record copies itself in {@link JdbcAnyRecord#asRecord()}, so that
+ * what is kept after release, like a failure, is not the pooled record. At most maxPooled free records are kept.
+ */
+@NonNullByDefault
+final public class RecordPool {
+	private final int m_maxPooled;
+
+	/** The most recently released first, as it is the most likely to still be in a cache. */
+	private final ArrayDeque<JdbcAnyRecord> m_free = new ArrayDeque<>();
+
+	private long m_allocated;
+
+	private long m_reused;
+
+	/** Reuses whose value arrays did not fit the new schema, so they were allocated anew. */
+	private long m_reshaped;
+
+	private long m_dropped;
+
+	public RecordPool(int maxPooled) {
+		m_maxPooled = maxPooled;
+	}
+
+	/**
+	 * An empty record for the schema; its value arrays are reused when the free record had a schema with the same
+	 * columns.
+	 */
+	public JdbcAnyRecord lease(RecordSchema schema) {
+		JdbcAnyRecord record;
+		synchronized(this) {
+			record = m_free.pollFirst();
+			if(null == record) {
+				m_allocated++;
+			} else {
+				m_reused++;
+			}
+		}
+		if(null == record) {
+			record = new JdbcAnyRecord(schema);
+			record.m_pool = this;
+		} else if(!record.reset(schema)) {
+			synchronized(this) {
+				m_reshaped++;
+			}
+		}
+		record.m_leased = true;
+		return record;
+	}
+
+	/**
+	 * Returns a leased record; it must not be used after this. Records that were not leased from this pool, like
+	 * batch rows and the copies made for failures, are left alone, so a chunk can release whatever it holds.
+	 */
+	public void release(IAnyRecord record) {
+		JdbcAnyRecord pooled = detach(record);
+		if(null == pooled)
+			return;
+		synchronized(this) {
+			free(pooled);
+		}
+	}
+
+	/**
+	 * Releases all records of the list, taking the lock once.
+	 */
+	public void releaseAll(List<? extends IAnyRecord> records) {
+		for(IAnyRecord record : records) {
+			detach(record);
+		}
+		synchronized(this) {
+			for(IAnyRecord record : records) {
+				if(record instanceof JdbcAnyRecord && ((JdbcAnyRecord) record).m_pool == this)
+					free((JdbcAnyRecord) record);
+			}
+		}
+	}
+
+	/**
+	 * Ends the lease and clears the values, so they do not stay reachable; null when the record is not ours.
+	 */
+	@Nullable
+	private JdbcAnyRecord detach(IAnyRecord record) {
+		if(!(record instanceof JdbcAnyRecord) || ((JdbcAnyRecord) record).m_pool != this)
+			return null;
+		JdbcAnyRecord pooled = (JdbcAnyRecord) record;
+		if(!pooled.m_leased)
+			throw new IllegalStateException("The record was released twice");
+		pooled.m_leased = false;
+		pooled.reset(pooled.getSchema());
+		return pooled;
+	}
+
+	private void free(JdbcAnyRecord record) {
+		if(m_free.size() >= m_maxPooled) {
+			m_dropped++;
+			return;
+		}
+		m_free.addFirst(record);
+	}
+
+	public synchronized String getStatus() {
+		return m_allocated + " records allocated, " + m_reused + " reuses (" + m_reshaped + " with new value arrays), " + m_free.size() + " free, " + m_dropped + " dropped";
+	}
+}
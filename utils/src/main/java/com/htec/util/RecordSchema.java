@@ -0,0 +1,288 @@
+package com.htec.util;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The columns of a result, shared by all {@link JdbcAnyRecord}s read from it: records keep their values in an
+ * array indexed by column, and this maps names, case-insensitively, to those indexes. Looking up a name does not
+ * allocate; for hot loops get a {@link Column} once and read records with that.
+ *
+ * <p>The schema also decides how each column is stored, see {@link Storage}: whole numbers that fit and floating
+ * point columns are kept unboxed by the records, only true decimals become a BigDecimal.</p>
+ */
+@NonNullByDefault
+final public class RecordSchema {
+	static private final RecordSchema EMPTY = new RecordSchema("", new String[0], new int[0]);
+
+	/**
+	 * How records keep the values of a column.
+	 */
+	public enum Storage {
+		/** As the object read or set. */
+		OBJECT,
+		/** A BigDecimal, for decimals with a fraction or too many digits for a long. */
+		DECIMAL,
+		/** An unboxed int. */
+		INT,
+		/** An unboxed long. */
+		LONG,
+		/** An unboxed double. */
+		DOUBLE
+	}
+
+	private final String m_tableName;
+
+	private final String[] m_names;
+
+	private final int[] m_sqlTypes;
+
+	private final Storage[] m_storage;
+
+	/** For INT, LONG and DOUBLE columns their index in the primitives of a record, else -1. */
+	private final int[] m_primitiveIndex;
+
+	private final int m_primitiveCount;
+
+	private final Column[] m_columns;
+
+	/** The lower case names, in column order, as JdbcAnyRecord.getAllColumnNames returns them. */
+	private final Set<String> m_lowerCaseNames;
+
+	/** Open addressing on the case-insensitive hash of the name: column index + 1, 0 when free. */
+	private final int[] m_table;
+
+	private final int m_mask;
+
+	/**
+	 * A column of this schema, to read and write records of this schema without looking up the name.
+	 */
+	static public final class Column {
+		private final RecordSchema m_schema;
+
+		private final int m_index;
+
+		Column(RecordSchema schema, int index) {
+			m_schema = schema;
+			m_index = index;
+		}
+
+		public RecordSchema getSchema() {
+			return m_schema;
+		}
+
+		public int getIndex() {
+			return m_index;
+		}
+
+		public String getName() {
+			return m_schema.getName(m_index);
+		}
+	}
+
+	public RecordSchema(String tableName, String[] names, int[] sqlTypes) {
+		this(tableName, names, sqlTypes, new int[names.length], new int[names.length]);
+	}
+
+	/**
+	 * With the precision and scale of each column, as ResultSetMetaData reports them, so that NUMERIC and DECIMAL
+	 * columns without a fraction can be stored as an int or long.
+	 */
+	public RecordSchema(String tableName, String[] names, int[] sqlTypes, int[] precisions, int[] scales) {
+		if(names.length != sqlTypes.length || names.length != precisions.length || names.length != scales.length)
+			throw new IllegalArgumentException("Every column needs a type, precision and scale");
+		m_tableName = tableName;
+		m_names = names.clone();
+		m_sqlTypes = sqlTypes.clone();
+		m_storage = new Storage[names.length];
+		m_primitiveIndex = new int[names.length];
+		int primitiveCount = 0;
+		for(int i = 0; i < names.length; i++) {
+			Storage storage = m_storage[i] = storageOf(sqlTypes[i], precisions[i], scales[i]);
+			m_primitiveIndex[i] = storage == Storage.INT || storage == Storage.LONG || storage == Storage.DOUBLE ? primitiveCount++ : -1;
+		}
+		m_primitiveCount = primitiveCount;
+		m_columns = new Column[names.length];
+		Set<String> lowerCaseNames = new LinkedHashSet<>();
+		int size = Integer.highestOneBit(Math.max(4, names.length * 4) - 1) << 1;	// At most a quarter full
+		m_table = new int[size];
+		m_mask = size - 1;
+		for(int i = 0; i < names.length; i++) {
+			m_columns[i] = new Column(this, i);
+			lowerCaseNames.add(names[i].toLowerCase());
+			int slot = hash(names[i]) & m_mask;
+			for(;;) {
+				int at = m_table[slot];
+				if(at == 0 || m_names[at - 1].equalsIgnoreCase(names[i])) {
+					m_table[slot] = i + 1;						// A repeated name finds the last column, as a map would
+					break;
+				}
+				slot = (slot + 1) & m_mask;
+			}
+		}
+		m_lowerCaseNames = Collections.unmodifiableSet(lowerCaseNames);
+	}
+
+	static public RecordSchema of(String tableName, ResultSetMetaData rsm) throws SQLException {
+		int count = rsm.getColumnCount();
+		String[] names = new String[count];
+		int[] types = new int[count];
+		int[] precisions = new int[count];
+		int[] scales = new int[count];
+		for(int i = 0; i < count; i++) {
+			names[i] = rsm.getColumnName(i + 1);
+			types[i] = rsm.getColumnType(i + 1);
+			switch(types[i]) {
+				default:
+					break;
+
+				case Types.NUMERIC:
+				case Types.DECIMAL:
+					precisions[i] = rsm.getPrecision(i + 1);
+					scales[i] = rsm.getScale(i + 1);
+					break;
+			}
+		}
+		return new RecordSchema(tableName, names, types, precisions, scales);
+	}
+
+	/**
+	 * NUMERIC and DECIMAL are only stored unboxed with a known precision and no scale: drivers report precision 0
+	 * (and for Oracle scale -127) for a NUMBER without bounds, which can hold anything.
+	 */
+	static private Storage storageOf(int sqlType, int precision, int scale) {
+		switch(sqlType) {
+			default:
+				return Storage.OBJECT;
+
+			case Types.SMALLINT:
+			case Types.INTEGER:
+				return Storage.INT;
+
+			case Types.BIGINT:
+				return Storage.LONG;
+
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				return Storage.DOUBLE;
+
+			case Types.NUMERIC:
+			case Types.DECIMAL:
+				if(scale != 0 || precision <= 0 || precision > 18)
+					return Storage.DECIMAL;
+				return precision <= 9 ? Storage.INT : Storage.LONG;
+		}
+	}
+
+	/**
+	 * A schema for records that are not read from a result set, whose values can be anything.
+	 */
+	static public RecordSchema of(String... names) {
+		if(names.length == 0)
+			return EMPTY;
+		int[] types = new int[names.length];
+		Arrays.fill(types, Types.JAVA_OBJECT);
+		return new RecordSchema("", names, types);
+	}
+
+	static private int hash(String name) {
+		int h = 0;
+		for(int i = 0, len = name.length(); i < len; i++) {
+			char c = name.charAt(i);
+			if(c >= 'A' && c <= 'Z')
+				c += 'a' - 'A';
+			else if(c >= 0x80)
+				c = Character.toLowerCase(c);
+			h = 31 * h + c;
+		}
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * The index of the column, in any case, or -1 when there is no such column.
+	 */
+	public int indexOf(String name) {
+		int slot = hash(name) & m_mask;
+		for(;;) {
+			int at = m_table[slot];
+			if(at == 0)
+				return -1;
+			String candidate = m_names[at - 1];
+			if(candidate == name || candidate.equals(name) || candidate.equalsIgnoreCase(name))
+				return at - 1;
+			slot = (slot + 1) & m_mask;
+		}
+	}
+
+	public Column column(String name) {
+		int index = indexOf(name);
+		if(index < 0)
+			throw new IllegalArgumentException("No column " + name + " in " + m_tableName + " " + Arrays.toString(m_names));
+		return m_columns[index];
+	}
+
+	public Column column(int index) {
+		return m_columns[index];
+	}
+
+	public int size() {
+		return m_names.length;
+	}
+
+	public String getName(int index) {
+		return m_names[index];
+	}
+
+	/**
+	 * The java.sql.Types type of the column; JAVA_OBJECT for schemas not made from a result set.
+	 */
+	public int getSqlType(int index) {
+		return m_sqlTypes[index];
+	}
+
+	public Storage getStorage(int index) {
+		return m_storage[index];
+	}
+
+	int getPrimitiveIndex(int index) {
+		return m_primitiveIndex[index];
+	}
+
+	int getPrimitiveCount() {
+		return m_primitiveCount;
+	}
+
+	public String getTableName() {
+		return m_tableName;
+	}
+
+	Set<String> getLowerCaseNames() {
+		return m_lowerCaseNames;
+	}
+
+	/**
+	 * True when this schema has the same column names, in order.
+	 */
+	public boolean hasNames(String[] names) {
+		return Arrays.equals(m_names, names);
+	}
+
+	/**
+	 * True when the other schema has the same columns, stored the same way, so its column indexes are ours.
+	 */
+	public boolean hasSameColumns(RecordSchema other) {
+		return other == this || Arrays.equals(m_names, other.m_names) && Arrays.equals(m_storage, other.m_storage);
+	}
+
+	@Override
+	public String toString() {
+		return m_tableName + Arrays.toString(m_names);
+	}
+}
@@ -0,0 +1,17 @@
+package com.htec.util;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * Input records, read one by one, like a result set.
+ */
+@NonNullByDefault
+public interface RecordSource extends AutoCloseable {
+	boolean hasNext() throws Exception;
+
+	JdbcAnyRecord next() throws Exception;
+
+	@Override
+	default void close() throws Exception {
+	}
+}
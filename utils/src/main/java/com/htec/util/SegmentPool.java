@@ -0,0 +1,72 @@
+package com.htec.util;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * Direct buffers of one size, for {@link OffHeapBatch}es: batches take segments as they grow and give them back
+ * when they are closed, so that a steady stream of batches reuses the same native memory instead of leaving it to
+ * the garbage collector, which frees direct buffers late. At most maxPooled free segments are kept.
+ */
+@NonNullByDefault
+final public class SegmentPool {
+	private final int m_segmentSize;
+
+	private final int m_maxPooled;
+
+	/** The most recently released first, as it is the most likely to still be in a cache. */
+	private final ArrayDeque<ByteBuffer> m_free = new ArrayDeque<>();
+
+	private long m_allocated;
+
+	private long m_reused;
+
+	private long m_dropped;
+
+	public SegmentPool(int segmentSize, int maxPooled) {
+		if(segmentSize < 64)
+			throw new IllegalArgumentException("Segments of " + segmentSize + " bytes are too small");
+		m_segmentSize = segmentSize;
+		m_maxPooled = maxPooled;
+	}
+
+	public int getSegmentSize() {
+		return m_segmentSize;
+	}
+
+	/**
+	 * A cleared segment in native byte order.
+	 */
+	public synchronized ByteBuffer acquire() {
+		ByteBuffer buffer = m_free.pollFirst();
+		if(null != buffer) {
+			m_reused++;
+			return buffer;
+		}
+		m_allocated++;
+		return ByteBuffer.allocateDirect(m_segmentSize).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Returns a segment; buffers of another size, or more than the pool keeps, are left to the garbage collector.
+	 * Only the latter count as dropped, the others were never taken from the pool.
+	 */
+	public synchronized void release(ByteBuffer buffer) {
+		if(buffer.capacity() != m_segmentSize)
+			return;
+		if(m_free.size() >= m_maxPooled) {
+			m_dropped++;
+			return;
+		}
+		buffer.clear();
+		m_free.addFirst(buffer);
+	}
+
+	public synchronized String getStatus() {
+		return m_allocated + " segments of " + (m_segmentSize / 1024) + "KB allocated, " + m_reused + " reuses, "
+			+ m_free.size() + " free, " + m_dropped + " dropped";
+	}
+}
@@ -0,0 +1,36 @@
+package com.htec.examples.parallelrunner.virtual;
+
+import com.htec.examples.parallelrunner.bulk.BulkTaskRunner;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs {@link BulkTaskRunner} executors on virtual threads. Meant for tasks that mostly block on I/O (a remote
+ * service, the database): thousands of executors then only need a few carrier threads. Each executor still gets
+ * its own thread, so initialize/terminate still bracket all work of that executor and can hold its resources.
+ *
+ * <p>Executor code should not block while holding a monitor (synchronized), as that pins the carrier thread.
+ * The runner itself only parks outside of monitors.</p>
+ */
+@NonNullByDefault
+final public class VirtualThreads {
+	private VirtualThreads() {
+	}
+
+	/**
+	 * A factory creating virtual threads named prefix-0, prefix-1, ...
+	 */
+	static public ThreadFactory factory(String prefix) {
+		return Thread.ofVirtual().name(prefix + "-", 0).factory();
+	}
+
+	/**
+	 * Create a runner whose executors run on virtual threads.
+	 */
+	static public <T, R> BulkTaskRunner<T, R> newRunner() {
+		BulkTaskRunner<T, R> runner = new BulkTaskRunner<>();
+		runner.setThreadFactory(factory("bulk-executor"));
+		return runner;
+	}
+}